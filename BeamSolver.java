@@ -0,0 +1,335 @@
+import java.util.Random;
+
+/**
+ * Picks a move for a packed 4x4 board within a time budget instead of at a
+ * fixed depth. The search deepens one move at a time and keeps the best
+ * move of the deepest search that finished, so whenever the deadline comes
+ * there is an answer from the last whole depth and the time taken never
+ * goes much past the budget.
+ * <p/>
+ * Each depth is an expectimax search like Solver's, pruned two ways so it
+ * gets deeper in the same time: a max node below the root only searches
+ * the beamWidth moves whose boards score best under Solver.evaluate, and a
+ * chance branch that is less likely than MIN_PROBABILITY is scored by
+ * Solver.evaluate instead of being searched.
+ * <p/>
+ * A BeamSolver keeps the depth and node count of its last search, so it
+ * should only be used by one thread at a time.
+ *
+ * Bugs: Two 32768 tiles don't merge, the same as in BitBoard
+ */
+
+public class BeamSolver {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TILE_BITS = 4;
+    private static final int TILE_MASK = 0xF;
+    private static final int NUM_TILES = 16;
+    private static final double PERCENT = 100.0;
+
+    /* Default number of moves searched at each max node below the root */
+    public static final int DEFAULT_BEAM_WIDTH = 2;
+
+    /* Default time budget for a move */
+    public static final long DEFAULT_BUDGET_NANOS = 5000000;
+
+    /* Deepest search tried */
+    public static final int MAX_DEPTH = 32;
+
+    /* Chance branches less likely than this are scored without searching */
+    private static final double MIN_PROBABILITY = 0.0001;
+
+    /* The clock is only read when the node count is a multiple of this,
+       since reading it costs about as much as a node */
+    private static final long CHECK_MASK = 0xFF;
+
+    /* Used to turn nanoseconds into milliseconds */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /* Number of moves searched at each max node below the root */
+    private final int beamWidth;
+
+    /* Probability of a 2 spawning */
+    private final double twoChance;
+
+    /* Boards after each move and their ordering scores, one row for each
+       depth so the search doesn't allocate */
+    private final long[][] moved = new long[MAX_DEPTH + ONE][Direction.COUNT];
+    private final double[][] order =
+            new double[MAX_DEPTH + ONE][Direction.COUNT];
+
+    /* Time the search has to stop by */
+    private long deadline;
+
+    /* Whether the deadline passed during the current depth */
+    private boolean timedOut;
+
+    /* Whether the current depth stopped anywhere because of the depth
+       limit, and not only because games ended */
+    private boolean depthLimited;
+
+    /* Number of nodes searched by the last search */
+    private long nodes;
+
+    /* Deepest whole depth the last search finished */
+    private int depth;
+
+    /**
+     * Constructor for a solver with the default beam width
+     */
+    public BeamSolver() {
+        this(DEFAULT_BEAM_WIDTH);
+    }
+
+    /**
+     * Constructor for a solver
+     *
+     * @param beamWidth the number of moves searched at each max node below
+     *                  the root, 1 to 4
+     */
+    public BeamSolver(int beamWidth) {
+        if (beamWidth < ONE || beamWidth > Direction.COUNT) {
+            throw new IllegalArgumentException(
+                    "Beam width must be from 1 to 4");
+        }
+        this.beamWidth = beamWidth;
+        this.twoChance = BitBoard.TWO_PROBABILITY / PERCENT;
+    }
+
+    /**
+     * Finds the best move that can be found for a board within a time
+     * budget
+     *
+     * @param board the packed board to search from
+     * @param budgetNanos the time the search may take
+     * @return the best direction, or null if no move can be done
+     */
+    public Direction bestMove(long board, long budgetNanos) {
+        this.deadline = System.nanoTime() + budgetNanos;
+        this.nodes = 0;
+        this.depth = 0;
+        // the best move with no search at all, in case not even the first
+        // depth finishes
+        Direction best = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int moves = 0;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            long next = BitBoard.move(board, Direction.get(d));
+            if (next != board) {
+                moves++;
+                double value = Solver.evaluate(next);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = Direction.get(d);
+                }
+            }
+        }
+        // there is nothing to choose between
+        if (moves <= ONE) {
+            return best;
+        }
+        for (int searchDepth = ONE; searchDepth <= MAX_DEPTH; searchDepth++) {
+            this.timedOut = false;
+            this.depthLimited = false;
+            Direction found = null;
+            double foundValue = Double.NEGATIVE_INFINITY;
+            for (int d = 0; d < Direction.COUNT && !this.timedOut; d++) {
+                long next = BitBoard.move(board, Direction.get(d));
+                if (next == board) {
+                    continue;
+                }
+                double value = this.chance(next, searchDepth, ONE);
+                if (value > foundValue) {
+                    foundValue = value;
+                    found = Direction.get(d);
+                }
+            }
+            // a depth cut short by the deadline is thrown away
+            if (this.timedOut) {
+                break;
+            }
+            best = found;
+            this.depth = searchDepth;
+            // searching deeper can't change anything once every line of
+            // play ends before the depth limit
+            if (!this.depthLimited) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the best move that can be found for a Board within a time
+     * budget
+     * Precondition: the board is 4x4 and every tile is 0 or a power of two
+     *
+     * @param board the board to search from
+     * @param budgetNanos the time the search may take
+     * @return the best direction, or null if no move can be done
+     */
+    public Direction bestMove(Board board, long budgetNanos) {
+        return this.bestMove(board.toBitBoard().getBoard(), budgetNanos);
+    }
+
+    /**
+     * Expected score of a board right after a move, before a tile spawns
+     *
+     * @param board the packed board
+     * @param depth the number of moves left to look ahead
+     * @param probability the chance of reaching this board
+     * @return the average score over every possible spawn
+     */
+    private double chance(long board, int depth, double probability) {
+        if (this.tick() || probability < MIN_PROBABILITY) {
+            return Solver.evaluate(board);
+        }
+        int empty = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            if (((board >>> (i * TILE_BITS)) & TILE_MASK) == 0) {
+                empty++;
+            }
+        }
+        // a move always leaves at least one empty tile, but checks anyway
+        if (empty == 0) {
+            return Solver.evaluate(board);
+        }
+        double twoBranch = probability * this.twoChance / empty;
+        double fourBranch = probability * (ONE - this.twoChance) / empty;
+        double total = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            int shift = i * TILE_BITS;
+            if (((board >>> shift) & TILE_MASK) != 0) {
+                continue;
+            }
+            total += this.twoChance * this.max(board | (1L << shift),
+                    depth - ONE, twoBranch);
+            total += (ONE - this.twoChance) * this.max(board | (2L << shift),
+                    depth - ONE, fourBranch);
+        }
+        return total / empty;
+    }
+
+    /**
+     * Best score of a board where the player is about to move, searching
+     * only the beamWidth moves whose boards score best
+     *
+     * @param board the packed board
+     * @param depth the number of moves left to look ahead
+     * @param probability the chance of reaching this board
+     * @return the score of the best move, or 0 if no move can be done
+     */
+    private double max(long board, int depth, double probability) {
+        if (depth == 0) {
+            this.depthLimited = true;
+            return Solver.evaluate(board);
+        }
+        if (this.tick()) {
+            return Solver.evaluate(board);
+        }
+        // ranks the moves by the score of their boards, best first
+        long[] moved = this.moved[depth];
+        double[] order = this.order[depth];
+        int count = 0;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            long next = BitBoard.move(board, Direction.get(d));
+            if (next == board) {
+                continue;
+            }
+            double value = Solver.evaluate(next);
+            int i = count++;
+            while (i > 0 && order[i - ONE] < value) {
+                moved[i] = moved[i - ONE];
+                order[i] = order[i - ONE];
+                i--;
+            }
+            moved[i] = next;
+            order[i] = value;
+        }
+        double best = 0;
+        for (int i = 0; i < Math.min(count, this.beamWidth); i++) {
+            best = Math.max(best,
+                    this.chance(moved[i], depth, probability));
+        }
+        return best;
+    }
+
+    /**
+     * Counts a node and checks the deadline every so often
+     *
+     * @return true if the deadline has passed
+     */
+    private boolean tick() {
+        if ((++this.nodes & CHECK_MASK) == 0
+                && System.nanoTime() > this.deadline) {
+            this.timedOut = true;
+        }
+        return this.timedOut;
+    }
+
+    /**
+     * get the deepest whole depth the last search finished
+     *
+     * @return the depth, 0 if not even the first depth finished
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * get the number of nodes the last search looked at
+     *
+     * @return the number of nodes
+     */
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Plays a game from the command line with a budget for each move,
+     * printing how long the moves took and how deep they searched
+     *
+     * @param args budget in milliseconds, beam width and seed, all optional
+     */
+    public static void main(String[] args) {
+        long budget = args.length > 0
+                ? (long) (Double.parseDouble(args[0]) * NANOS_PER_MILLI)
+                : DEFAULT_BUDGET_NANOS;
+        int beamWidth = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_BEAM_WIDTH;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        BeamSolver solver = new BeamSolver(beamWidth);
+        BoardMetrics metrics = new BoardMetrics();
+        Random random = new Random(seed);
+        long board = BitBoard.addRandomTile(
+                BitBoard.addRandomTile(0, random), random);
+        long score = 0;
+        long depths = 0;
+        long nodes = 0;
+        long moves = 0;
+        while (true) {
+            long start = System.nanoTime();
+            Direction direction = solver.bestMove(board, budget);
+            if (direction == null) {
+                break;
+            }
+            metrics.recordMove(direction, true, 0, System.nanoTime() - start);
+            depths += solver.getDepth();
+            nodes += solver.getNodes();
+            moves++;
+            score += BitBoard.moveScore(board, direction);
+            board = BitBoard.addRandomTile(BitBoard.move(board, direction),
+                    random);
+        }
+        BoardMetrics.Snapshot snapshot = metrics.snapshot();
+        System.out.print(new Board(BitBoard.unpack(board)).boardToString());
+        System.out.printf("score %d, moves %d, mean depth %.1f, "
+                + "mean nodes %.0f%n", score, moves,
+                (double) depths / Math.max(ONE, moves),
+                (double) nodes / Math.max(ONE, moves));
+        System.out.printf("move ms p50 %.2f, p99 %.2f, p99.9 %.2f%n",
+                snapshot.getLatencyPercentile(50) / NANOS_PER_MILLI,
+                snapshot.getLatencyPercentile(99) / NANOS_PER_MILLI,
+                snapshot.getLatencyPercentile(99.9) / NANOS_PER_MILLI);
+    }
+}
@@ -0,0 +1,546 @@
+import java.util.Random;
+
+/**
+ * Packed Board
+ * <p/>
+ *  bits   0-15   row 0   (column 0 in bits 0-3, column 3 in bits 12-15)
+ *  bits  16-31   row 1
+ *  bits  32-47   row 2
+ *  bits  48-63   row 3
+ * <p/>
+ * Every tile is stored as the log2 of its value in 4 bits, so an empty
+ * tile is 0, a 2 is 1, a 4 is 2 and so on up to 32768 which is 15.
+ */
+
+/**
+ * Creates a packed representation of a 4x4 game of 2048 where the whole
+ * board lives in a single long. Moves are done with precomputed tables that
+ * hold the result of a left or right move for every possible row, and up and
+ * down moves transpose the board so that columns can use the same tables.
+ *
+ * Bugs: Tiles above 32768 cannot be stored, two 32768 tiles stay unmerged
+ */
+
+public class BitBoard {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int THREE = 3;
+    private static final int FOUR = 4;
+
+    /* The only grid size a packed board can hold */
+    public static final int GRID_SIZE = 4;
+
+    /* Number of bits used for a single tile */
+    private static final int TILE_BITS = 4;
+
+    /* Number of bits used for a single row */
+    private static final int ROW_BITS = 16;
+
+    /* Mask for a single tile */
+    private static final int TILE_MASK = 0xF;
+
+    /* Mask for a single row */
+    private static final long ROW_MASK = 0xFFFFL;
+
+    /* Largest exponent that fits in a tile */
+    private static final int MAX_EXPONENT = 15;
+
+    /* Used to roll TWO_PROBABILITY */
+    private static final int HUNDRED = 100;
+
+    /* The probability (times 100) that a spawned tile will be a 2 */
+    public static final int TWO_PROBABILITY = 90;
+
+    /* Exponents of the tiles that can spawn */
+    private static final long TWO_EXPONENT = 1;
+    private static final long FOUR_EXPONENT = 2;
+
+    /* Number of different rows, one for each 16 bit value */
+    private static final int ROW_COUNT = 65536;
+
+    /* Result of a left move for every possible row */
+    private static final char[] ROW_LEFT = new char[ROW_COUNT];
+
+    /* Result of a right move for every possible row */
+    private static final char[] ROW_RIGHT = new char[ROW_COUNT];
+
+    /* Score of the merges of a left or right move for every possible row,
+       which is the same both ways since a run of equal tiles makes the
+       same number of pairs from either end */
+    private static final int[] ROW_SCORE = new int[ROW_COUNT];
+
+    /* Direction strings */
+    public static final String LEFT = "LEFT";
+    public static final String RIGHT = "RIGHT";
+    public static final String UP = "UP";
+    public static final String DOWN = "DOWN";
+
+    static {
+        // fills in both tables by sliding every possible row once
+        int[] line = new int[GRID_SIZE];
+        for (int row = 0; row < ROW_COUNT; row++) {
+            // unpacks the row into its four exponents
+            for (int c = 0; c < GRID_SIZE; c++) {
+                line[c] = (row >>> (c * TILE_BITS)) & TILE_MASK;
+            }
+            ROW_SCORE[row] = slideLeft(line);
+            // packs the moved row back together
+            int result = 0;
+            for (int c = 0; c < GRID_SIZE; c++) {
+                result |= line[c] << (c * TILE_BITS);
+            }
+            ROW_LEFT[row] = (char) result;
+            // a right move is a left move on the mirrored row
+            ROW_RIGHT[reverseRow(row)] = (char) reverseRow(result);
+        }
+    }
+
+    /* The packed tiles of the board */
+    private long board;
+
+    /**
+     * Constructor for a board that is already packed
+     *
+     * @param board the packed tiles to start with
+     */
+    public BitBoard(long board) {
+        this.board = board;
+    }
+
+    /**
+     * Constructor that packs a 2d board
+     *
+     * @param inputBoard the 4x4 board to assign
+     */
+    public BitBoard(int[][] inputBoard) {
+        this.board = pack(inputBoard);
+    }
+
+    /**
+     * Moves the exponents of a single line to the left, merging each pair
+     * once the same way Board.moveLeft does.
+     *
+     * @param line the exponents to move, changed in place
+     * @return the score of the merges, each scoring the value of the new
+     *         tile
+     */
+    private static int slideLeft(int[] line) {
+        // nextSpot is the next open spot on the left
+        int nextSpot = 0;
+        // the last tile that was placed and can still be merged into
+        int last = 0;
+        int score = 0;
+        for (int c = 0; c < line.length; c++) {
+            int value = line[c];
+            if (value == 0) {
+                continue;
+            }
+            // merges with the last placed tile if they are the same
+            if (value == last && value < MAX_EXPONENT) {
+                line[nextSpot - ONE] = value + ONE;
+                score += ONE << (value + ONE);
+                // a merged tile can't be merged again
+                last = 0;
+            }
+            else {
+                line[nextSpot] = value;
+                last = value;
+                nextSpot++;
+            }
+        }
+        // clears the spots that were left behind
+        for (int c = nextSpot; c < line.length; c++) {
+            line[c] = 0;
+        }
+        return score;
+    }
+
+    /**
+     * Reverses the order of the tiles in a row
+     *
+     * @param row the 16 bit row to reverse
+     * @return the mirrored row
+     */
+    private static int reverseRow(int row) {
+        return ((row & 0xF) << 12) | ((row & 0xF0) << FOUR)
+                | ((row >>> FOUR) & 0xF0) | ((row >>> 12) & 0xF);
+    }
+
+    /**
+     * Swaps rows and columns so that column moves can use the row tables
+     *
+     * @param x the packed board
+     * @return the transposed board
+     */
+    public static long transpose(long x) {
+        // swaps the tiles inside each 2x2 block
+        long a1 = x & 0xF0F00F0FF0F00F0FL;
+        long a2 = x & 0x0000F0F00000F0F0L;
+        long a3 = x & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        // swaps the 2x2 blocks themselves
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Applies a row table to each of the four rows
+     *
+     * @param x the packed board
+     * @param table the row table to use
+     * @return the moved board
+     */
+    private static long moveRows(long x, char[] table) {
+        long result = 0;
+        for (int r = 0; r < GRID_SIZE; r++) {
+            int shift = r * ROW_BITS;
+            result |= (long) table[(int) ((x >>> shift) & ROW_MASK)] << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the board after a move
+     *
+     * @param x the packed board
+     * @param direction the tiles will move
+     * @return the moved board, or the same board if the direction is unknown
+     */
+    public static long move(long x, String direction) {
+        Direction dir = Direction.fromString(direction);
+        // unknown directions leave the board as it is
+        return dir == null ? x : move(x, dir);
+    }
+
+    /**
+     * Returns the board after a move
+     *
+     * @param x the packed board
+     * @param direction the tiles will move
+     * @return the moved board
+     */
+    public static long move(long x, Direction direction) {
+        switch (direction) {
+            case UP:
+                return moveUp(x);
+            case RIGHT:
+                return moveRight(x);
+            case DOWN:
+                return moveDown(x);
+            case LEFT:
+                return moveLeft(x);
+            default:
+                return x;
+        }
+    }
+
+    /**
+     * Returns the board after a left move
+     *
+     * @param x the packed board
+     * @return the moved board
+     */
+    public static long moveLeft(long x) {
+        return moveRows(x, ROW_LEFT);
+    }
+
+    /**
+     * Returns the board after a right move
+     *
+     * @param x the packed board
+     * @return the moved board
+     */
+    public static long moveRight(long x) {
+        return moveRows(x, ROW_RIGHT);
+    }
+
+    /**
+     * Returns the board after an upward move
+     *
+     * @param x the packed board
+     * @return the moved board
+     */
+    public static long moveUp(long x) {
+        return transpose(moveRows(transpose(x), ROW_LEFT));
+    }
+
+    /**
+     * Returns the board after a downward move
+     *
+     * @param x the packed board
+     * @return the moved board
+     */
+    public static long moveDown(long x) {
+        return transpose(moveRows(transpose(x), ROW_RIGHT));
+    }
+
+    /**
+     * Checks to see if the tiles can move in any direction with a handful
+     * of bitwise operations instead of four moves. A board with an empty
+     * tile can move unless it is empty, and a full board can move if two
+     * neighbours match and aren't both 32768, which doesn't merge here.
+     *
+     * @param x the packed board
+     * @return true if some move can be done and false otherwise
+     */
+    public static boolean hasAnyMove(long x) {
+        if (zeroTiles(x) != 0) {
+            return x != 0;
+        }
+        long mergeable = ~zeroTiles(~x);
+        // a tile matches the one to its right, leaving out the last column
+        long rows = zeroTiles(x ^ (x >>> TILE_BITS)) & 0x0111011101110111L;
+        // a tile matches the one below it, leaving out the last row
+        long columns = zeroTiles(x ^ (x >>> ROW_BITS)) & 0x0000111111111111L;
+        return ((rows | columns) & mergeable) != 0;
+    }
+
+    /**
+     * Adds a 2 or a 4 to a random empty tile of a packed board the same way
+     * Board.addRandomTile does, picking the location first and then the
+     * value
+     *
+     * @param x the packed board
+     * @param random the random generator for tile values and locations
+     * @return the board with the new tile, or the same board if it is full
+     */
+    public static long addRandomTile(long x, Random random) {
+        long empty = zeroTiles(x);
+        int count = Long.bitCount(empty);
+        if (count == 0) {
+            return x;
+        }
+        int position = random.nextInt(count);
+        long tile = random.nextInt(HUNDRED) < TWO_PROBABILITY
+                ? TWO_EXPONENT : FOUR_EXPONENT;
+        // drops the empty tiles before the picked one
+        for (int i = 0; i < position; i++) {
+            empty &= empty - ONE;
+        }
+        return x | (tile << Long.numberOfTrailingZeros(empty));
+    }
+
+    /**
+     * Finds the tiles of a packed board that are 0
+     *
+     * @param x the packed board
+     * @return a mask with the lowest bit of each tile that is 0 set
+     */
+    private static long zeroTiles(long x) {
+        return ~(x | (x >>> ONE) | (x >>> TWO) | (x >>> THREE))
+                & 0x1111111111111111L;
+    }
+
+    /**
+     * Works out the score of the merges of a move without moving
+     *
+     * @param x the packed board
+     * @param direction the tiles will move
+     * @return the score, each merge scoring the value of the new tile
+     */
+    public static int moveScore(long x, Direction direction) {
+        // up and down merge along the rows of the transposed board
+        if (direction == Direction.UP || direction == Direction.DOWN) {
+            x = transpose(x);
+        }
+        int score = 0;
+        for (int r = 0; r < GRID_SIZE; r++) {
+            score += ROW_SCORE[(int) ((x >>> (r * ROW_BITS)) & ROW_MASK)];
+        }
+        return score;
+    }
+
+    /**
+     * Works out the board after each of the four moves at once. Each row
+     * is read once for both left and right, and the board is transposed
+     * once for both up and down.
+     *
+     * @param x the packed board
+     * @param out buffer of at least Direction.COUNT boards, filled in with
+     *            the board after each move by Direction ordinal
+     * @param scores buffer of at least Direction.COUNT scores, filled in
+     *               with the merge score of each move by Direction ordinal
+     * @return a bitmask with bit d set if the move with ordinal d changes
+     *         the board
+     */
+    public static int moveAll(long x, long[] out, int[] scores) {
+        long left = 0;
+        long right = 0;
+        int rowScore = 0;
+        long t = transpose(x);
+        long up = 0;
+        long down = 0;
+        int columnScore = 0;
+        for (int r = 0; r < GRID_SIZE; r++) {
+            int shift = r * ROW_BITS;
+            int row = (int) ((x >>> shift) & ROW_MASK);
+            left |= (long) ROW_LEFT[row] << shift;
+            right |= (long) ROW_RIGHT[row] << shift;
+            rowScore += ROW_SCORE[row];
+            int column = (int) ((t >>> shift) & ROW_MASK);
+            up |= (long) ROW_LEFT[column] << shift;
+            down |= (long) ROW_RIGHT[column] << shift;
+            columnScore += ROW_SCORE[column];
+        }
+        up = transpose(up);
+        down = transpose(down);
+        out[Direction.LEFT.ordinal()] = left;
+        out[Direction.RIGHT.ordinal()] = right;
+        out[Direction.UP.ordinal()] = up;
+        out[Direction.DOWN.ordinal()] = down;
+        scores[Direction.LEFT.ordinal()] = rowScore;
+        scores[Direction.RIGHT.ordinal()] = rowScore;
+        scores[Direction.UP.ordinal()] = columnScore;
+        scores[Direction.DOWN.ordinal()] = columnScore;
+        return (left != x ? ONE << Direction.LEFT.ordinal() : 0)
+                | (right != x ? ONE << Direction.RIGHT.ordinal() : 0)
+                | (up != x ? ONE << Direction.UP.ordinal() : 0)
+                | (down != x ? ONE << Direction.DOWN.ordinal() : 0);
+    }
+
+    /**
+     * Checks to see if the tiles can move in a direction without moving them
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean canMove(String direction) {
+        return move(this.board, direction) != this.board;
+    }
+
+    /**
+     * Same as canMove(String) but keyed on a Direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean canMove(Direction direction) {
+        return move(this.board, direction) != this.board;
+    }
+
+    /**
+     * Moves the tiles in the direction passed in if the move changes
+     * the board.
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean move(String direction) {
+        Direction dir = Direction.fromString(direction);
+        // unknown directions can never move
+        return dir != null && this.move(dir);
+    }
+
+    /**
+     * Same as move(String) but keyed on a Direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean move(Direction direction) {
+        long moved = move(this.board, direction);
+        if (moved == this.board) {
+            return false;
+        }
+        this.board = moved;
+        return true;
+    }
+
+    /**
+     * Packs a 4x4 grid of tile values into a long
+     *
+     * @param inputBoard the grid to pack
+     * @return the packed board
+     */
+    public static long pack(int[][] inputBoard) {
+        if (inputBoard.length != GRID_SIZE) {
+            throw new IllegalArgumentException(
+                    "Packed boards must be " + GRID_SIZE + "x" + GRID_SIZE);
+        }
+        long packed = 0;
+        for (int r = 0; r < GRID_SIZE; r++) {
+            for (int c = 0; c < GRID_SIZE; c++) {
+                packed |= (long) toExponent(inputBoard[r][c])
+                        << ((r * GRID_SIZE + c) * TILE_BITS);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks a long into a 4x4 grid of tile values
+     *
+     * @param packed the packed board
+     * @return a new grid of tile values
+     */
+    public static int[][] unpack(long packed) {
+        int[][] grid = new int[GRID_SIZE][GRID_SIZE];
+        for (int r = 0; r < GRID_SIZE; r++) {
+            for (int c = 0; c < GRID_SIZE; c++) {
+                int exponent = (int) (packed
+                        >>> ((r * GRID_SIZE + c) * TILE_BITS)) & TILE_MASK;
+                grid[r][c] = exponent == 0 ? 0 : ONE << exponent;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Turns a tile value into the exponent stored for it
+     *
+     * @param value the tile value, 0 or a power of two up to 32768
+     * @return the log2 of the value, or 0 for an empty tile
+     */
+    private static int toExponent(int value) {
+        if (value == 0) {
+            return 0;
+        }
+        int exponent = Integer.numberOfTrailingZeros(value);
+        // only powers of two that fit in a tile can be packed
+        if (Integer.bitCount(value) != ONE || exponent == 0
+                || exponent > MAX_EXPONENT) {
+            throw new IllegalArgumentException(
+                    "Tile value can't be packed: " + value);
+        }
+        return exponent;
+    }
+
+    /**
+     * get the packed tiles
+     *
+     * @return the packed board
+     */
+    public long getBoard() {
+        return this.board;
+    }
+
+    /**
+     * set the packed tiles
+     *
+     * @param board the packed board that you want to set to
+     */
+    public void setBoard(long board) {
+        this.board = board;
+    }
+
+    /**
+     * get a grid of the tile values
+     *
+     * @return A new grid of the tiles
+     */
+    public int[][] getGrid() {
+        return unpack(this.board);
+    }
+
+    /**
+     * set the tiles from a grid of tile values
+     *
+     * @param newGrid the grid that you want to set to
+     */
+    public void setGrid(int[][] newGrid) {
+        this.board = pack(newGrid);
+    }
+}
@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
 /**
  * Sample Board
  * <p/>
@@ -28,9 +32,27 @@ public class Board {
     private static final int THREE = 3;
     private static final int FOUR = 4;
 
+    /* Used to roll TWO_PROBABILITY */
+    private static final int HUNDRED = 100;
+
     /* Used to format number in the grid in boardToString methods */
     private static final String NUMBER_FORMAT = "%5d";
 
+    /* The empty tile already formatted with NUMBER_FORMAT */
+    private static final String FORMATTED_EMPTY =
+            String.format(NUMBER_FORMAT, 0);
+
+    /* Every power of two already formatted with NUMBER_FORMAT, index i
+       holding 2^i */
+    private static final String[] FORMATTED_TILES =
+            new String[Integer.SIZE - 1];
+
+    static {
+        for (int i = 0; i < FORMATTED_TILES.length; i++) {
+            FORMATTED_TILES[i] = String.format(NUMBER_FORMAT, ONE << i);
+        }
+    }
+
     /* Number of tiles showing when the game starts */
     public final int NUM_START_TILES = 2;
 
@@ -43,6 +65,58 @@ public class Board {
     /* The grid of tile values, its size being boardSize * boardSize */
     private final int[][] grid;
 
+    /* Reused copy of the grid for previewing moves without allocating */
+    private final int[] snapshot;
+
+    /* The random generator for tile values and locations */
+    private final Random random;
+
+    /* Index (row * GRID_SIZE + column) of every empty tile, only the first
+       freeCount of them are used */
+    private final int[] freeCells;
+
+    /* Position of each tile in freeCells, or -1 if the tile isn't empty */
+    private final int[] freePosition;
+
+    /* Number of empty tiles */
+    private int freeCount;
+
+    /* Largest tile on the board and the number of tiles equal to it */
+    private int maxTile;
+    private int maxCount;
+
+    /* Each tile row by row as the features last saw it, so that the old
+       value of a tile is still known after the grid has changed */
+    private final int[] tiles;
+
+    /* How much each row and each column goes up from one tile to the next
+       in log2 terms, added up over its steps. Not final since rotate turns
+       rows into columns by swapping them */
+    private int[] rowUp;
+    private int[] columnUp;
+
+    /* Score gained from merges by every move that changed the board */
+    private long score;
+
+    /* Whether the move being done has changed any tile yet */
+    private boolean moveChanged;
+
+    /* Score gained from merges by the move being done */
+    private int moveScore;
+
+    /* Number of pairs merged by the move being done */
+    private int moveMerges;
+
+    /* Score gained from merges by the last move that changed the board */
+    private int lastMoveScore;
+
+    /* Boards before each move so they can be undone, or null if history
+       is turned off */
+    private BoardHistory history;
+
+    /* Counters every call is recorded in, or null if metrics are turned
+       off */
+    private BoardMetrics metrics;
 
     /* Direction strings */
     public final String LEFT = "LEFT";
@@ -50,20 +124,67 @@ public class Board {
     public final String UP = "UP";
     public final String DOWN = "DOWN";
 
+    /**
+     * Constructor used to start a new game with NUM_START_TILES random tiles
+     *
+     * @param random - the random generator for tile values and locations
+     * @param boardSize - the number of rows and columns of the board
+     */
+    public Board(Random random, int boardSize) {
+        this(random, new int[boardSize][boardSize]);
+        for (int i = 0; i < this.NUM_START_TILES; i++) {
+            this.addRandomTile();
+        }
+    }
+
     /**
      * Constructor used to load boards for grading/testing
      *
-     * @param random - the random generator for tile values
-     * @param inputBoard - - the 2d board to assign
+     * @param random - the random generator for tile values and locations
+     * @param inputBoard - the 2d board to assign
      */
-    public Board(int[][] inputBoard) {
+    public Board(Random random, int[][] inputBoard) {
+        this.random = random;
         this.GRID_SIZE = inputBoard.length;
         this.grid = new int[this.GRID_SIZE][this.GRID_SIZE];
+        this.snapshot = new int[this.GRID_SIZE * this.GRID_SIZE];
+        this.freeCells = new int[this.GRID_SIZE * this.GRID_SIZE];
+        this.freePosition = new int[this.GRID_SIZE * this.GRID_SIZE];
+        // every tile starts empty and is then filled in one at a time
+        for (int cell = 0; cell < this.freeCells.length; cell++) {
+            this.freeCells[cell] = cell;
+            this.freePosition[cell] = cell;
+        }
+        this.freeCount = this.freeCells.length;
+        this.maxCount = this.freeCells.length;
+        this.tiles = new int[this.GRID_SIZE * this.GRID_SIZE];
+        this.rowUp = new int[this.GRID_SIZE];
+        this.columnUp = new int[this.GRID_SIZE];
         for (int r = 0; r < this.GRID_SIZE; r++) {
             for (int c = 0; c < this.GRID_SIZE; c++) {
-                this.grid[r][c] = inputBoard[r][c];
+                this.setTile(r, c, inputBoard[r][c]);
             }
         }
+        this.trackMaxTile();
+    }
+
+    /**
+     * Constructor used to load boards for grading/testing, tiles added
+     * later come from an unseeded random generator
+     *
+     * @param inputBoard - the 2d board to assign
+     */
+    public Board(int[][] inputBoard) {
+        this(new Random(), inputBoard);
+    }
+
+    /**
+     * Constructor used to load a packed 4x4 board
+     *
+     * @param bitBoard the packed board to assign
+     */
+    public Board(BitBoard bitBoard) {
+        this(bitBoard.getGrid());
     }
 
     /**
@@ -79,25 +200,63 @@ public class Board {
      * Then append "cell" to your output string.
      */
     public String boardToString() {
-        // start off with empty string
-        String stringOutput = "";
+        // each row holds GRID_SIZE cells and a "\n"
+        StringBuilder stringOutput = new StringBuilder(this.GRID_SIZE
+                * (this.GRID_SIZE * FORMATTED_EMPTY.length() + ONE));
+        return this.appendTo(stringOutput).toString();
+    }
+
+    /**
+     * Appends the current board to a StringBuilder in the same format as
+     * boardToString(), so a caller can reuse one builder for many boards.
+     *
+     * @param out the builder to append to
+     * @return the same builder
+     */
+    public StringBuilder appendTo(StringBuilder out) {
+        try {
+            this.appendTo((Appendable) out);
+        }
+        catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return out;
+    }
+
+    /**
+     * Appends the current board to an Appendable, such as a Writer, in the
+     * same format as boardToString()
+     *
+     * @param out the Appendable to append to
+     * @throws IOException if out can't be written to
+     */
+    public void appendTo(Appendable out) throws IOException {
         for (int i = 0; i < this.grid.length; i++) {
             for (int j = 0; j < this.grid[0].length; j++) {
-                // only adds the values that aren't in the rightmost column
-                if (j != this.grid[0].length-1) {
-                    // adds the next number plus a space to stringOutput
-                    stringOutput = stringOutput + 
-                                    String.format(NUMBER_FORMAT, grid[i][j]);
-                }
-                // adds the value in the rightmost column
-                else {
-                    // adds the last number and "\n" to stringOutput
-                    stringOutput = stringOutput + 
-                            String.format(NUMBER_FORMAT, grid[i][j]) + "\n";
-                }
+                out.append(formatTile(this.grid[i][j]));
             }
+            // ends each row after the rightmost column
+            out.append('\n');
         }
-        return stringOutput;
+    }
+
+    /**
+     * Formats a single tile with NUMBER_FORMAT, using the already formatted
+     * String for powers of two
+     *
+     * @param value the tile value
+     * @return the formatted tile
+     */
+    private static String formatTile(int value) {
+        if (value == 0) {
+            return FORMATTED_EMPTY;
+        }
+        // only powers of two are in the table
+        if (value > 0 && (value & (value - ONE)) == 0) {
+            return FORMATTED_TILES[Integer.numberOfTrailingZeros(value)];
+        }
+        return String.format(NUMBER_FORMAT, value);
     }
 
     /**
@@ -107,17 +266,473 @@ public class Board {
      */
     //tips for future: can only use this.getGrid or this.grid
     public String boardToString(String direction) {
-        // sets oldBoard to a copy of the 2D array
-        int[][] oldBoard = this.getGrid();  
+        Direction dir = Direction.fromString(direction);
+        // saves the grid into the reused snapshot instead of a new copy
+        this.copyGridTo(this.snapshot);
         // moves one direction and saves changes to the current grid
-        this.move(direction);
+        if (dir != null) {
+            this.applyMove(dir, false);
+        }
         // saves string representation of grid
         String stringBoard = this.boardToString(); 
         // resets the board to the original board
-        setGrid(oldBoard);
+        this.copyGridFrom(this.snapshot);
         // return the string representation
         return stringBoard;
     }
+
+    /**
+     * Writes the board after a move into a buffer without changing the
+     * board and without allocating.
+     *
+     * @param direction the tiles will move
+     * @param out buffer of at least GRID_SIZE * GRID_SIZE tiles, filled in
+     *            row by row
+     * @return true if the movement can be done and false if it cannot, in
+     *         which case out holds the current board
+     */
+    public boolean previewMove(Direction direction, int[] out) {
+        // saves the grid so it can be put back after the move
+        this.copyGridTo(this.snapshot);
+        boolean moved = this.applyMove(direction, false);
+        this.copyGridTo(out);
+        // resets the board to the original board
+        this.copyGridFrom(this.snapshot);
+        return moved;
+    }
+
+    /**
+     * Works out the board after each of the four moves at once without
+     * changing the board and without allocating. The grid is read once into
+     * the reused snapshot and every move is worked out from that copy.
+     *
+     * @param successors buffer of at least Direction.COUNT * GRID_SIZE *
+     *                   GRID_SIZE tiles, the board after the move with
+     *                   ordinal d being filled in row by row starting at
+     *                   d * GRID_SIZE * GRID_SIZE
+     * @param scores buffer of at least Direction.COUNT scores, filled in
+     *               with the merge score of each move by Direction ordinal
+     * @return a bitmask with bit d set if the move with ordinal d can be
+     *         done, the successor of a move that can't being the current
+     *         board
+     */
+    public int moveAll(int[] successors, int[] scores) {
+        this.copyGridTo(this.snapshot);
+        int tiles = this.GRID_SIZE * this.GRID_SIZE;
+        int last = this.GRID_SIZE - ONE;
+        int canMove = 0;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            Direction direction = Direction.get(d);
+            int base = d * tiles;
+            this.moveChanged = false;
+            this.moveScore = 0;
+            for (int i = 0; i < this.GRID_SIZE; i++) {
+                // flat index of the first tile of the line and the step to
+                // the next one, starting at the side the tiles move towards
+                switch (direction) {
+                    case UP:
+                        this.moveLineInto(successors, base, i,
+                                this.GRID_SIZE);
+                        break;
+                    case RIGHT:
+                        this.moveLineInto(successors, base,
+                                i * this.GRID_SIZE + last, -ONE);
+                        break;
+                    case DOWN:
+                        this.moveLineInto(successors, base,
+                                last * this.GRID_SIZE + i, -this.GRID_SIZE);
+                        break;
+                    case LEFT:
+                    default:
+                        this.moveLineInto(successors, base,
+                                i * this.GRID_SIZE, ONE);
+                        break;
+                }
+            }
+            scores[d] = this.moveScore;
+            if (this.moveChanged) {
+                canMove |= ONE << d;
+            }
+        }
+        return canMove;
+    }
+
+    /**
+     * performs a move on a single line of the snapshot, writing the moved
+     * line into a buffer. Works the same way as moveLine but on flat
+     * indexes.
+     * Postcondition: moveChanged is set if any tile changed and moveScore
+     * has the merges added to it
+     *
+     * @param out the buffer to write the moved line into
+     * @param base the index in out of the first tile of the board
+     * @param start the flat index of the first tile in the line
+     * @param step the change in flat index from one tile to the next
+     */
+    private void moveLineInto(int[] out, int base, int start, int step) {
+        // the next open spot
+        int next = start;
+        // the last tile placed, which the next tile can still merge into,
+        // or 0 if it was made by a merge
+        int lastValue = 0;
+        int last = start;
+        int index = start;
+        for (int k = 0; k < this.GRID_SIZE; k++) {
+            int value = this.snapshot[index];
+            if (value != 0) {
+                if (value == lastValue) {
+                    out[base + last] = value + value;
+                    this.moveScore += value + value;
+                    this.moveChanged = true;
+                    lastValue = 0;
+                }
+                else {
+                    out[base + next] = value;
+                    if (index != next) {
+                        this.moveChanged = true;
+                    }
+                    lastValue = value;
+                    last = next;
+                    next += step;
+                }
+            }
+            index += step;
+        }
+        // the spots that were left behind are empty
+        for (; next != index; next += step) {
+            out[base + next] = 0;
+        }
+    }
+
+    /**
+     * Adds a 2 or a 4 to a random empty tile, a 2 being picked
+     * TWO_PROBABILITY percent of the time. The empty tile is taken from the
+     * tracked empty tiles, which every change to the grid keeps up to date,
+     * so the grid isn't scanned. Nothing is added if there are no empty
+     * tiles.
+     */
+    public void addRandomTile() {
+        if (this.freeCount == 0) {
+            return;
+        }
+        // picks the location first and then the value
+        int position = this.random.nextInt(this.freeCount);
+        int value = this.random.nextInt(HUNDRED) < this.TWO_PROBABILITY
+                ? TWO : FOUR;
+        int cell = this.freeCells[position];
+        int row = cell / this.GRID_SIZE;
+        int col = cell % this.GRID_SIZE;
+        this.setTile(row, col, value);
+    }
+
+    /**
+     * Checks to see if the game is over, which is when the tiles can't move
+     * in any direction
+     *
+     * @return true if no move can be done and false otherwise
+     */
+    public boolean isGameOver() {
+        return !this.hasAnyMove();
+    }
+
+    /**
+     * Checks to see if the tiles can move in any direction, in a single
+     * pass that stops at the first pair of matching neighbours. A board
+     * with both empty and non-empty tiles can always move, since a row or
+     * column that is neither full nor empty can, so the tracked empty tiles
+     * answer that case without looking at the grid at all.
+     *
+     * @return true if some move can be done and false otherwise
+     */
+    public boolean hasAnyMove() {
+        if (this.freeCount != 0) {
+            return this.freeCount != this.GRID_SIZE * this.GRID_SIZE;
+        }
+        // every tile is full, so only a pair can move
+        for (int r = 0; r < this.GRID_SIZE; r++) {
+            for (int c = 0; c < this.GRID_SIZE; c++) {
+                int value = this.grid[r][c];
+                if (c + ONE < this.GRID_SIZE
+                        && value == this.grid[r][c + ONE]) {
+                    return true;
+                }
+                if (r + ONE < this.GRID_SIZE
+                        && value == this.grid[r + ONE][c]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get the number of empty tiles
+     *
+     * @return the number of tiles that are 0
+     */
+    public int getFreeCount() {
+        return this.freeCount;
+    }
+
+    /**
+     * get the largest tile on the board
+     *
+     * @return the largest tile, or 0 if the board is empty
+     */
+    public int getMaxTile() {
+        return this.maxTile;
+    }
+
+    /**
+     * get the score gained from merges by every move that changed the
+     * board, each merge scoring the value of the new tile. Undo doesn't
+     * take the score of a move back.
+     *
+     * @return the total score
+     */
+    public long getScore() {
+        return this.score;
+    }
+
+    /**
+     * get the monotonicity of a row, which is the smaller of how much the
+     * row goes up and how much it goes down from left to right, counting
+     * each tile as its log2 and an empty tile as 0
+     *
+     * @param row the row
+     * @return 0 if the row never turns back, larger the more it does
+     */
+    public int getRowMonotonicity(int row) {
+        return monotonicity(this.rowUp[row], this.grid[row][0],
+                this.grid[row][this.GRID_SIZE - ONE]);
+    }
+
+    /**
+     * get the monotonicity of a column, the same way as for a row but from
+     * top to bottom
+     *
+     * @param col the column
+     * @return 0 if the column never turns back, larger the more it does
+     */
+    public int getColumnMonotonicity(int col) {
+        return monotonicity(this.columnUp[col], this.grid[0][col],
+                this.grid[this.GRID_SIZE - ONE][col]);
+    }
+
+    /**
+     * get the monotonicity of every row and column added up
+     *
+     * @return 0 if no line turns back, larger the more they do
+     */
+    public int getMonotonicity() {
+        int total = 0;
+        for (int i = 0; i < this.GRID_SIZE; i++) {
+            total += this.getRowMonotonicity(i)
+                    + this.getColumnMonotonicity(i);
+        }
+        return total;
+    }
+
+    /**
+     * Finds the largest tile again if no tile is equal to it any more. A
+     * move can't do that, since the largest tile is either still on the
+     * board or merged into a larger one, so only replacing tiles the way
+     * setGrid and undo do can need the tiles to be looked at.
+     */
+    private void trackMaxTile() {
+        if (this.maxCount > 0) {
+            return;
+        }
+        this.maxTile = this.tiles[0];
+        for (int value : this.tiles) {
+            if (value > this.maxTile) {
+                this.maxTile = value;
+                this.maxCount = ONE;
+            }
+            else if (value == this.maxTile) {
+                this.maxCount++;
+            }
+        }
+    }
+
+    /**
+     * Works out the monotonicity of a line from how much it goes up. Every
+     * step goes either up or down, so the line goes down by as much as it
+     * goes up less how much higher it ends than it starts.
+     *
+     * @param up how much the line goes up
+     * @param first the first tile of the line
+     * @param last the last tile of the line
+     * @return the smaller of how much the line goes up and down
+     */
+    private static int monotonicity(int up, int first, int last) {
+        return Math.min(up, up - (exponent(last) - exponent(first)));
+    }
+
+    /**
+     * Updates how much a line goes up after one or both tiles of a step in
+     * it changed
+     *
+     * @param up how much each line goes up
+     * @param line the line the step is in
+     * @param from the log2 of the first tile of the step before the change
+     * @param to the log2 of the second tile of the step before the change
+     * @param newFrom the log2 of the first tile of the step after the change
+     * @param newTo the log2 of the second tile of the step after the change
+     */
+    private static void trackStep(int[] up, int line, int from, int to,
+            int newFrom, int newTo) {
+        up[line] += Math.max(0, newTo - newFrom) - Math.max(0, to - from);
+    }
+
+    /**
+     * Finds the log2 of a tile, rounded down
+     *
+     * @param value the tile value
+     * @return the log2 of the tile, or 0 for an empty tile
+     */
+    private static int exponent(int value) {
+        // without a branch, since empty and full tiles come in no order
+        return Integer.SIZE - ONE
+                - Integer.numberOfLeadingZeros(Math.max(value, ONE));
+    }
+
+    /**
+     * get the tiles row by row into a flat buffer without allocating
+     *
+     * @param out buffer of at least GRID_SIZE * GRID_SIZE tiles
+     */
+    public void getTiles(int[] out) {
+        this.copyGridTo(out);
+    }
+
+    /**
+     * set the tiles from a flat row by row buffer without allocating
+     *
+     * @param in buffer of at least GRID_SIZE * GRID_SIZE tiles
+     */
+    public void setTiles(int[] in) {
+        for (int r = 0; r < this.GRID_SIZE; r++) {
+            for (int c = 0; c < this.GRID_SIZE; c++) {
+                this.setTile(r, c, in[r * this.GRID_SIZE + c]);
+            }
+        }
+        this.trackMaxTile();
+    }
+
+    /**
+     * Sets a single tile, keeping the tracked features up to date
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param value the new value of the tile
+     */
+    private void setTile(int row, int col, int value) {
+        this.grid[row][col] = value;
+        this.trackTile(row, col);
+    }
+
+    /**
+     * Updates the tracked features for a tile of the grid that may have
+     * changed, in constant time. An emptied tile is added to the tracked
+     * empty tiles and a filled one taken out, freePosition saying where it
+     * is in freeCells so the last empty tile can take its place. Only the
+     * steps to and from its neighbours change how much its row and column
+     * go up.
+     *
+     * @param row the row of the tile that may have changed
+     * @param col the column of the tile that may have changed
+     */
+    private void trackTile(int row, int col) {
+        int cell = row * this.GRID_SIZE + col;
+        int old = this.tiles[cell];
+        int value = this.grid[row][col];
+        if (value == old) {
+            return;
+        }
+        this.tiles[cell] = value;
+        if (value == 0) {
+            this.freeCells[this.freeCount] = cell;
+            this.freePosition[cell] = this.freeCount;
+            this.freeCount++;
+        }
+        else if (old == 0) {
+            int position = this.freePosition[cell];
+            this.freeCount--;
+            int last = this.freeCells[this.freeCount];
+            this.freeCells[position] = last;
+            this.freePosition[last] = position;
+            this.freePosition[cell] = -ONE;
+        }
+        // the count may reach 0 part way through a change, in which case
+        // trackMaxTile finds the largest tile once the change is done
+        if (old == this.maxTile) {
+            this.maxCount--;
+        }
+        if (value > this.maxTile) {
+            this.maxTile = value;
+            this.maxCount = ONE;
+        }
+        else if (value == this.maxTile) {
+            this.maxCount++;
+        }
+        int from = exponent(old);
+        int to = exponent(value);
+        int edge = this.GRID_SIZE - ONE;
+        if (col > 0) {
+            int left = exponent(this.tiles[cell - ONE]);
+            trackStep(this.rowUp, row, left, from, left, to);
+        }
+        if (col < edge) {
+            int right = exponent(this.tiles[cell + ONE]);
+            trackStep(this.rowUp, row, from, right, to, right);
+        }
+        if (row > 0) {
+            int above = exponent(this.tiles[cell - this.GRID_SIZE]);
+            trackStep(this.columnUp, col, above, from, above, to);
+        }
+        if (row < edge) {
+            int below = exponent(this.tiles[cell + this.GRID_SIZE]);
+            trackStep(this.columnUp, col, from, below, to, below);
+        }
+    }
+
+    /**
+     * Updates the tracked features after the whole grid was replaced,
+     * only the tiles that changed costing anything more than a compare
+     */
+    private void trackGrid() {
+        for (int r = 0; r < this.GRID_SIZE; r++) {
+            for (int c = 0; c < this.GRID_SIZE; c++) {
+                this.trackTile(r, c);
+            }
+        }
+        this.trackMaxTile();
+    }
+
+    /**
+     * Copies the grid row by row into a flat buffer
+     *
+     * @param out buffer of at least GRID_SIZE * GRID_SIZE tiles
+     */
+    private void copyGridTo(int[] out) {
+        for (int r = 0; r < this.GRID_SIZE; r++) {
+            System.arraycopy(this.grid[r], 0, out, r * this.GRID_SIZE,
+                    this.GRID_SIZE);
+        }
+    }
+
+    /**
+     * Copies a flat row by row buffer back into the grid
+     *
+     * @param in buffer of at least GRID_SIZE * GRID_SIZE tiles
+     */
+    private void copyGridFrom(int[] in) {
+        for (int r = 0; r < this.GRID_SIZE; r++) {
+            System.arraycopy(in, r * this.GRID_SIZE, this.grid[r], 0,
+                    this.GRID_SIZE);
+        }
+    }
  
     /**
      * The purpose of this method is to check to see if the movement of
@@ -133,24 +748,61 @@ public class Board {
      * @return true if the movement can be done and false if it cannot
      */
     public boolean canMove(String direction){
-        // utilize helper methods to check if movement in a particular
-        // direction is possible
+        Direction dir = Direction.fromString(direction);
+        // unknown directions can never move
+        return dir != null && this.canMove(dir);
+    }
 
-        if (direction.equals(this.UP)) {
-            return this.canMoveUp();
-        }
-        else if (direction.equals(this.RIGHT)) {
-            return this.canMoveRight();
-        }
-        else if (direction.equals(this.DOWN)) {
-            return this.canMoveDown();
-        }
-        else if (direction.equals(this.LEFT)) {
-            return this.canMoveLeft();
+    /**
+     * Same as canMove(String) but keyed on a Direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean canMove(Direction direction) {
+        if (this.metrics == null) {
+            return this.checkMove(direction);
         }
-        else {
-            return false;
+        boolean canMove = this.checkMove(direction);
+        this.metrics.recordCanMove(direction, canMove);
+        return canMove;
+    }
+
+    /**
+     * Checks if the tiles can move in a direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    private boolean checkMove(Direction direction) {
+        // checks every line, starting each one at the side the tiles
+        // move towards
+        for (int i = 0; i < this.GRID_SIZE; i++) {
+            boolean canMoveLine;
+            switch (direction) {
+                case UP:
+                    canMoveLine = this.canMoveLine(0, i, ONE, 0);
+                    break;
+                case RIGHT:
+                    canMoveLine = this.canMoveLine(i, this.GRID_SIZE - ONE,
+                            0, -ONE);
+                    break;
+                case DOWN:
+                    canMoveLine = this.canMoveLine(this.GRID_SIZE - ONE, i,
+                            -ONE, 0);
+                    break;
+                case LEFT:
+                    canMoveLine = this.canMoveLine(i, 0, 0, ONE);
+                    break;
+                default:
+                    return false;
+            }
+            if (canMoveLine) {
+                return true;
+            }
         }
+        // returns false if no line can move
+        return false;
     }
 
     /**
@@ -158,12 +810,12 @@ public class Board {
      *
      */
     private void rotate() {
-        // 4 rotations to get to the original (4*90=360)
-        int sideNum = 4;
+        // number of tiles on each side of the grid
+        int sideNum = this.GRID_SIZE;
         // this for loop iterates through only the right side of the
         // diagonal of the grid
         for (int i = 0; i < sideNum / 2; i++) {
-            // for i=0, j=0,1,2; i=1, j=1,2; i=2, j=2,3; i=3, j=3
+            // for a 4x4 grid i=0, j=0,1,2; i=1, j=1
             for (int j = i; j < sideNum - i - 1; j++) {
                 // temporary variable to hold the value at row i and column j
                 int oldGridValue = this.grid[i][j];
@@ -189,417 +841,329 @@ public class Board {
      */
     public void rotate(int number) {
         if (number <= 0) return;
-        for (int i = 0; i < number % 4; i++) this.rotate();
+        for (int i = 0; i < number % 4; i++) {
+            this.rotate();
+            this.rotateFeatures();
+        }
+        if (this.metrics != null) {
+            this.metrics.recordRotate();
+        }
     }
 
     /**
-     * determines if a move leftwards is possible
-     *
-     * @return true if such a move is possible, false if no such move is
+     * Moves the tracked features along with a 90 degree clockwise rotation
+     * of the grid, where the tile at row r and column c goes to row c and
+     * column GRID_SIZE - 1 - r. No line is worked out again: column i is
+     * row GRID_SIZE - 1 - i, and row i is column i read backwards, so it
+     * goes up as much as the column went down.
      */
-    private boolean canMoveLeft() {
-        for (int i = 0; i < this.grid.length; i++) {
-            for (int j = 0; j < this.grid[0].length - 1; j++) {
-                // used to check the column to the right
-                int spot = j + 1;
-                // checks if the original position is 0 and if the column to
-                // the right is a number to see if it can move left
-                if (this.grid[i][j] == 0 && this.grid[i][spot] != 0) {
-                    return true;
-                }
-                // checks for pairs
-                if (this.grid[i][j] == this.grid[i][spot] &&
-                         this.grid[i][j]!=0) {
-                    return true;
-                }
-            }
-        }  
-        // returns false if it can't move left
-        return false;
+    private void rotateFeatures() {
+        int[] up = this.rowUp;
+        this.rowUp = this.columnUp;
+        this.columnUp = reverse(up);
+        int last = this.GRID_SIZE - ONE;
+        for (int i = 0; i < this.GRID_SIZE; i++) {
+            this.rowUp[i] += exponent(this.grid[i][last])
+                    - exponent(this.grid[i][0]);
+        }
+        this.copyGridTo(this.tiles);
+        for (int k = 0; k < this.freeCount; k++) {
+            this.freePosition[this.freeCells[k]] = -ONE;
+        }
+        for (int k = 0; k < this.freeCount; k++) {
+            int cell = this.freeCells[k];
+            int row = cell / this.GRID_SIZE;
+            int col = cell % this.GRID_SIZE;
+            cell = col * this.GRID_SIZE + this.GRID_SIZE - ONE - row;
+            this.freeCells[k] = cell;
+            this.freePosition[cell] = k;
+        }
     }
 
     /**
-     * determines if a move downwards is possible
+     * Reverses an array in place
      *
-     * @return true if such a move is possible, false if no such move is
+     * @param values the array
+     * @return the same array
      */
-    private boolean canMoveDown() {
-        for (int i = this.grid.length - 1; i > 0  ; i--) {
-            for (int j = 0; j < this.grid[0].length; j++) {
-                // used to check the row above
-                int spot = i - 1;
-                // checks if the current position is 0 and 
-                // the row above is a number to see if it can move down
-                if (this.grid[i][j] == 0 && this.grid[spot][j] != 0) {
-                    return true;
-                }
-                // checks for pairs
-                if (this.grid[i][j] == this.grid[spot][j] &&
-                         this.grid[i][j]!=0) {
-                    return true;
-                }
-            }
-        } 
-        // returns false if it can't move down
-        return false;
+    private static int[] reverse(int[] values) {
+        for (int i = 0, j = values.length - ONE; i < j; i++, j--) {
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
     }
 
     /**
-     * determines if a move rightward is possible
+     * determines if a single line of tiles can move. The line starts at the
+     * tile on the side the tiles move towards and steps away from it, so
+     * the same check works for every direction and grid size.
      *
+     * @param row the row of the first tile in the line
+     * @param col the column of the first tile in the line
+     * @param rowStep the change in row from one tile to the next
+     * @param colStep the change in column from one tile to the next
      * @return true if such a move is possible, false if no such move is
      */
-    private boolean canMoveRight() {
-        for (int i = 0; i < this.grid.length; i++) {
-            for (int j = this.grid[0].length - 1; j > 0; j--) {
-                // used to check the column to the left
-                int spot = j - 1;
-                // checks if the original position is 0 and if the column to
-                // the left is a number to see if it can move right
-                if (this.grid[i][j] == 0 && this.grid[i][spot] != 0) {
-                    return true;
-                }
-                // checks for pairs
-                if (this.grid[i][j] == this.grid[i][spot] && 
-                        this.grid[i][j]!=0) {
-                    return true;
-                }
+    private boolean canMoveLine(int row, int col, int rowStep, int colStep) {
+        for (int k = 0; k < this.GRID_SIZE - ONE; k++) {
+            int current = this.grid[row][col];
+            // used to check the next tile away from the side
+            int next = this.grid[row + rowStep][col + colStep];
+            // checks if the current position is 0 and the next tile is a
+            // number that can slide into it
+            if (current == 0 && next != 0) {
+                return true;
             }
-        }   
-        // returns false if it can't move right
-        return false;
-    }
-
-    /**
-     * determines if a move upwards is possible
-     *
-     * @return true if such a move is possible, false if no such move is
-     */
-    private boolean canMoveUp() {
-        for (int i = 0; i < this.grid.length - 1  ; i--) {
-            for (int j = 0; j < this.grid[0].length; j++) {
-                // used to check the row below
-                int spot = i + 1;
-                // checks if the current position is 0 and 
-                // the row below is a number to see if it can move up
-                if (this.grid[i][j] == 0 && this.grid[spot][j] != 0) {
-                    return true;
-                }
-                // checks for pairs
-                if (this.grid[spot][j] == this.grid[i][j] && 
-                                    this.grid[i][j]!=0) {
-                    return true;
-                }
+            // checks for pairs
+            if (current == next && current != 0) {
+                return true;
             }
-        }   
-        // returns false if it can't move up
+            row += rowStep;
+            col += colStep;
+        }
+        // returns false if the line can't move
         return false;
     }
 
-
     /**
      * The purpose of this method is to move the tiles in the game
      * board by a specified direction passed in as a parameter. If the movement
      * cannot be done, the method returns false. If the movement can be done, it
-     * moves the tiles and returns true. This method relies on the help of four
-     * other helper methods to perform the game play.
+     * moves the tiles and returns true. This method relies on the help of a
+     * single line kernel that is run once for each row or column.
      *
      * @param direction the tiles will move (if possible)
      * @return true if the movement can be done and false if it cannot
      */
     public boolean move(String direction) {
-        /* if canMove is false, exit and don't move tiles */
-        if (!this.canMove(direction)) return false;
+        Direction dir = Direction.fromString(direction);
+        // unknown directions can never move
+        return dir != null && this.move(dir);
+    }
 
-        /* move in relationship to the direction passed in */
-        if (direction.equals(this.UP)) {
-            this.moveUp();
-        }
-        else if (direction.equals(this.RIGHT)) {
-            this.moveRight();
+    /**
+     * Same as move(String) but keyed on a Direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean move(Direction direction) {
+        if (this.metrics == null) {
+            return this.moveAndTrack(direction);
         }
-        else if (direction.equals(this.DOWN)) {
-            this.moveDown();
+        long start = System.nanoTime();
+        boolean moved = this.moveAndTrack(direction);
+        this.metrics.recordMove(direction, moved, this.moveMerges,
+                System.nanoTime() - start);
+        return moved;
+    }
+
+    /**
+     * Moves the tiles and updates the history, tracked features and score
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    private boolean moveAndTrack(Direction direction) {
+        // saves the board first in case the move changes it
+        if (this.history != null) {
+            this.history.stage(this.grid);
         }
-        else if (direction.equals(this.LEFT)) {
-            this.moveLeft();
+        if (!this.applyMove(direction, true)) return false;
+        if (this.history != null) {
+            this.history.commit();
         }
-        else {
+        this.lastMoveScore = this.moveScore;
+        this.score += this.moveScore;
+        return true;
+    }
+
+    /**
+     * Turns on undo and redo, keeping up to a number of moves. Turning it
+     * on again forgets every kept move.
+     * Precondition: every tile is 0 or a power of two
+     *
+     * @param depth the most moves that can be undone, at least 1
+     */
+    public void enableHistory(int depth) {
+        this.history = new BoardHistory(this.GRID_SIZE, depth);
+    }
+
+    /**
+     * Turns off undo and redo and forgets every kept move
+     */
+    public void disableHistory() {
+        this.history = null;
+    }
+
+    /**
+     * Turns on metrics, recording every move, canMove, rotate, getGrid and
+     * setGrid into counters that can be shared with other boards
+     *
+     * @param metrics the counters to record into
+     */
+    public void enableMetrics(BoardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Turns off metrics, so calls cost nothing extra
+     */
+    public void disableMetrics() {
+        this.metrics = null;
+    }
+
+    /**
+     * Puts the board back to how it was before the last move
+     *
+     * @return true if there was a move to undo and false otherwise
+     */
+    public boolean undo() {
+        if (this.history == null || !this.history.undo(this.grid)) {
             return false;
         }
-
+        this.trackGrid();
         return true;
     }
 
     /**
-     * performs a move left
-     * Precondition: a left move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * Puts the board back to how it was before the last undo
+     *
+     * @return true if there was an undo to redo and false otherwise
      */
-    private void moveLeft() {
-        // iterates through all the rows
-        for (int i = 0; i < this.grid.length; i++) {
-            // nextSpot is used to if the spot to the left is open 
-            // -takes into account multiple spots
-            int nextSpot = 0;
-            // iterates through all the columns
-            for (int j = 0; j < this.grid[0].length; j++) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value to the left
-                    this.grid[i][nextSpot] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most left side
-                    if (j != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // increments if a value is not equal to 0
-                    nextSpot++;
-                }
-            }
-        }
-        // this for loop is for finding pairs and adding them
-        for (int i = 0; i < this.grid.length; i++) {
-            // only iterates in columns 0, 1, 2 because we are checking the
-            // the column and the column to the right of it
-            for (int j = 0; j < this.grid[0].length - 1; j++) {
-                // checks if the value in the column and the column to the
-                // right are the same
-                if (this.grid[i][j] == this.grid[i][j+1]) {
-                    // adds up the values of the pairs
-                    int total = this.grid[i][j] + this.grid[i][j+1];
-                    // sets the total value to the column to the left
-                    this.grid[i][j] = total;
-                    // sets the the column to the right equal to 0
-                    this.grid[i][j+1]=0;
-                } 
-            }
-        }
-        // this third for loop is used to move everything to the left after
-        // taking care of pairs
-    
-        // iterates through all the rows
-        for (int i = 0; i < this.grid.length; i++) {
-            // nextSpot is used to if the spot to the left is open 
-            // -takes into account multiple spots
-            int nextSpot = 0;
-            // iterates through all the columns
-            for (int j = 0; j < this.grid[0].length; j++) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value to the left
-                    this.grid[i][nextSpot] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most left side
-                    if (j != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // increments if a value is not equal to 0
-                    nextSpot++;
-                }
-            }
-        }     
-    }
-
-    /**
-     * performs a move downward
-     * Precondition: a downward move is possible.
-     * Postcondition: The board is modified to reflect the move
-     */
-    private void moveDown() {
-        for (int j = 0; j < this.grid[0].length; j++) {
-            // nextSpot is used to if the spot below is open 
-            // -takes into account multiple spots
-            int nextSpot = 3;
-            for (int i = this.grid.length - 1; i >= 0 ; i--) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value downward
-                    this.grid[nextSpot][j] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most bottom side
-                    if (i != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // decrements if a value is not equal to 0
-                    nextSpot--;
-                }
-            }
-        }
-        // this for loop is for finding pairs and adding them
-        for (int j = 0; j < this.grid[0].length ; j++) {
-            // only iterates in rows 1, 2, 3 because we are checking the
-            // the row and the row above of it
-            for (int i = this.grid.length - 1; i > 0 ; i--) {
-                // checks if the value in the row and the row above
-                // are the same
-                if (this.grid[i][j] == this.grid[i-1][j]) {
-                    // adds up the values of the pairs
-                    int total = this.grid[i][j] + this.grid[i-1][j];
-                    // sets the total value to the original row
-                    this.grid[i][j] = total;
-                    // sets the the row above equal to 0
-                    this.grid[i-1][j]=0;
-                } 
-            }
+    public boolean redo() {
+        if (this.history == null || !this.history.redo(this.grid)) {
+            return false;
         }
-        // this third for loop is used to move everything downward after
-        // taking care of pairs
-        for (int j = 0; j < this.grid[0].length; j++) {
-            // nextSpot is used to if the spot below is open 
-            // -takes into account multiple spots
-            int nextSpot = 3;
-            for (int i = this.grid.length - 1; i >= 0 ; i--) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value downward
-                    this.grid[nextSpot][j] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most bottom side
-                    if (i != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // decrements if a value is not equal to 0
-                    nextSpot--;
-                }
-            }
-        }  
+        this.trackGrid();
+        return true;
     }
 
     /**
-     * performs a move right
-     * Precondition: a right move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * get the score gained from merges by the last move that changed the
+     * board, each merge scoring the value of the new tile
+     *
+     * @return the score of the last move
      */
-    private void moveRight() {
-        // iterates through all the rows
-        for (int i = 0; i < this.grid.length; i++) {
-            // nextSpot is used to if the spot to the right is open 
-            // -takes into account multiple spots
-            int nextSpot = 3;
-            // iterates through all the columns
-            for (int j = this.grid[0].length - 1; j >= 0; j--) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value to the right
-                    this.grid[i][nextSpot] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most right side
-                    if (j != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // decrements if a value is not equal to 0
-                    nextSpot--;
-                }
-            }
-        }
-        // this for loop is for finding pairs and adding them
-        for (int i = 0; i < this.grid.length; i++) {
-            // only iterates in columns 1, 2, 3 because we are checking the
-            // the column and the column to the left of it
-            for (int j = this.grid[0].length - 1; j > 0; j--) {
-                // checks if the value in the column and the column to the
-                // left are the same
-                if (this.grid[i][j] == this.grid[i][j-1]) {
-                    // adds up the values of the pairs
-                    int total = this.grid[i][j] + this.grid[i][j-1];
-                    // sets the total value to the column to the right
-                    this.grid[i][j] = total;
-                    // sets the the column to the left equal to 0
-                    this.grid[i][j-1]=0;
-                } 
-            }
-        }
-        // this third for loop is used to move everything to the left after
-        // taking care of pairs
-        
-        // iterates through all the rows
-        for (int i = 0; i < this.grid.length; i++) {
-            // nextSpot is used to if the spot to the right is open 
-            // -takes into account multiple spots
-            int nextSpot = 3;
-            // iterates through all the columns
-            for (int j = this.grid[0].length - 1; j >= 0; j--) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value to the right
-                    this.grid[i][nextSpot] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most right side
-                    if (j != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // decrements if a value is not equal to 0
-                    nextSpot--;
-                }
+    public int getLastMoveScore() {
+        return this.lastMoveScore;
+    }
+
+    /**
+     * Moves the tiles without updating the score. There is no canMove check
+     * first since the line kernel finds out on its own if anything changed.
+     *
+     * @param direction the tiles will move (if possible)
+     * @param track whether to keep the tracked features up to date, which
+     *              previews that put the grid back afterwards don't need
+     * @return true if the movement can be done and false if it cannot
+     */
+    private boolean applyMove(Direction direction, boolean track) {
+        this.moveChanged = false;
+        this.moveScore = 0;
+        this.moveMerges = 0;
+
+        /* move each line in relationship to the direction passed in */
+        for (int i = 0; i < this.GRID_SIZE; i++) {
+            switch (direction) {
+                case UP:
+                    this.moveLine(0, i, ONE, 0, track);
+                    break;
+                case RIGHT:
+                    this.moveLine(i, this.GRID_SIZE - ONE, 0, -ONE, track);
+                    break;
+                case DOWN:
+                    this.moveLine(this.GRID_SIZE - ONE, i, -ONE, 0, track);
+                    break;
+                case LEFT:
+                    this.moveLine(i, 0, 0, ONE, track);
+                    break;
+                default:
+                    return false;
             }
         }
+
+        return this.moveChanged;
     }
 
     /**
-     * performs a move upward
+     * performs a move on a single line of tiles. The line starts at the
+     * tile on the side the tiles move towards and steps away from it, so
+     * the same kernel works for every direction and grid size. Tiles are
+     * moved and merged in the same pass, and a tile that was just made by a
+     * merge can't be merged again.
+     * Postcondition: The line is modified to reflect the move, moveChanged
+     * is set if any tile changed and moveScore and moveMerges have the
+     * merges added to them
      *
-     * Precondition: an upward move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * @param row the row of the first tile in the line
+     * @param col the column of the first tile in the line
+     * @param rowStep the change in row from one tile to the next
+     * @param colStep the change in column from one tile to the next
+     * @param track whether to keep the tracked features up to date
      */
-    private void moveUp() {
-        for (int j = 0; j < this.grid[0].length; j++) {
-            // nextSpot is used to if the spot above is open 
-            // -takes into account multiple spots
-            int nextSpot = 0;
-            for (int i = 0; i < this.grid.length; i++) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value upward
-                    this.grid[nextSpot][j] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most top side
-                    if (i != nextSpot) {  
-                        this.grid[i][j]=0;
+    private void moveLine(int row, int col, int rowStep, int colStep,
+            boolean track) {
+        int startRow = row;
+        int startCol = col;
+        // nextRow and nextCol are the next open spot
+        // -takes into account multiple spots
+        int nextRow = row;
+        int nextCol = col;
+        // how far along the line the next open spot and the first tile
+        // that changed are
+        int next = 0;
+        int first = this.GRID_SIZE;
+        // the last tile placed, which the next tile can still merge into,
+        // or 0 if it was made by a merge
+        int lastValue = 0;
+        int lastRow = row;
+        int lastCol = col;
+        int last = 0;
+        for (int k = 0; k < this.GRID_SIZE; k++) {
+            int value = this.grid[row][col];
+            // empty tiles are skipped instead of being compared
+            if (value != 0) {
+                this.grid[row][col] = 0;
+                if (value == lastValue) {
+                    // adds up the pair into the last tile placed
+                    this.grid[lastRow][lastCol] = value + value;
+                    this.moveScore += value + value;
+                    this.moveMerges++;
+                    this.moveChanged = true;
+                    first = Math.min(first, last);
+                    // the merged tile can't be merged again
+                    lastValue = 0;
+                }
+                else {
+                    // moves the value towards the side
+                    this.grid[nextRow][nextCol] = value;
+                    if (k != next) {
+                        this.moveChanged = true;
+                        first = Math.min(first, next);
                     }
-                    // increments if a value is not equal to 0
-                    nextSpot++;
+                    lastValue = value;
+                    lastRow = nextRow;
+                    lastCol = nextCol;
+                    last = next;
+                    // steps the open spot since a value was placed
+                    nextRow += rowStep;
+                    nextCol += colStep;
+                    next++;
                 }
             }
+            row += rowStep;
+            col += colStep;
         }
-        // this for loop is for finding pairs and adding them
-        for (int j = 0; j < this.grid[0].length ; j++) {
-            // only iterates in rows 0, 1, 2 because we are checking the
-            // the row and the row below of it
-            for (int i = 0; i < this.grid.length - 1 ; i++) {
-                // checks if the value in the row and the row below
-                // are the same
-                if (this.grid[i][j] == this.grid[i+1][j]) {
-                    // adds up the values of the pairs
-                    int total = this.grid[i][j] + this.grid[i+1][j];
-                    // sets the total value to the original row
-                    this.grid[i][j] = total;
-                    // sets the the row above equal to 0
-                    this.grid[i+1][j]=0;
-                } 
+        if (track) {
+            // the tiles before the first change are as they were
+            for (int k = first; k < this.GRID_SIZE; k++) {
+                this.trackTile(startRow + k * rowStep,
+                        startCol + k * colStep);
             }
         }
-        // this third for loop is used to move everything upward after
-        // taking care of pairs
-        for (int j = 0; j < this.grid[0].length; j++) {
-            // nextSpot is used to if the spot above is open 
-            // -takes into account multiple spots
-            int nextSpot = 0;
-            for (int i = 0; i < this.grid.length; i++) {
-                // checks if the value at row i and column j is not 0
-                if (this.grid[i][j] != 0) {   
-                    // moves the value upward
-                    this.grid[nextSpot][j] = this.grid[i][j];
-                    // makes the original spot equal to 0 
-                    // also takes into account the most top side
-                    if (i != nextSpot) {  
-                        this.grid[i][j]=0;
-                    }
-                    // increments if a value is not equal to 0
-                    nextSpot++;
-                }
-            }
-        }  
     }
 
     /**
@@ -608,6 +1172,10 @@ public class Board {
      * @return A copy of the grid
      */
     public int[][] getGrid() {
+        if (this.metrics != null) {
+            // one array for each row and one holding the rows
+            this.metrics.recordGridCopy(this.GRID_SIZE + ONE);
+        }
         int[][] gridCopy = new int[this.GRID_SIZE][this.GRID_SIZE];
         for (int r = 0; r < this.grid.length; r++) {
             for (int c = 0; c < this.grid[r].length; c++) {
@@ -623,10 +1191,45 @@ public class Board {
      * @param newGrid the grid that you want to set to
      */
     public void setGrid(int[][] newGrid) {
+        if (this.metrics != null) {
+            this.metrics.recordGridSet();
+        }
         for (int r = 0; r < this.grid.length; r++) {
             for (int c = 0; c < this.grid[r].length; c++) {
-                this.grid[r][c] = newGrid[r][c];
+                this.setTile(r, c, newGrid[r][c]);
             }
         }
+        this.trackMaxTile();
+    }
+
+    /**
+     * get a packed copy of the grid so moves can be done by a BitBoard
+     * Precondition: the grid is 4x4 and every tile is 0 or a power of two
+     *
+     * @return A packed copy of the grid
+     */
+    public BitBoard toBitBoard() {
+        return new BitBoard(this.grid);
+    }
+
+    /**
+     * get the packed key shared by this board and the 7 boards symmetric to
+     * it, without changing the grid the way rotate does
+     * Precondition: the grid is 4x4 and every tile is 0 or a power of two
+     *
+     * @return the canonical packed board
+     */
+    public long canonicalKey() {
+        return Symmetry.canonical(BitBoard.pack(this.grid));
+    }
+
+    /**
+     * set the grid from a packed board
+     * Precondition: the grid is 4x4
+     *
+     * @param bitBoard the packed board that you want to set to
+     */
+    public void setBitBoard(BitBoard bitBoard) {
+        this.setGrid(bitBoard.getGrid());
     }
 }
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size list of packed boards kept off the heap, 8 bytes for each
+ * board, so that hundreds of millions of boards cost the garbage collector
+ * nothing. A direct buffer can't be larger than 2GB, so the boards are
+ * kept in chunks of CHUNK_BOARDS boards each.
+ *
+ * Bugs: The memory is only given back when the arena is garbage collected
+ */
+
+public class BoardArena {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of boards in each chunk, a power of two */
+    static final int CHUNK_BITS = 24;
+    static final int CHUNK_BOARDS = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_BOARDS - 1;
+
+    /* The boards, CHUNK_BOARDS in each chunk but the last */
+    private final ByteBuffer[] chunks;
+
+    /* Number of boards that fit */
+    private final long capacity;
+
+    /* Number of boards added */
+    private long size;
+
+    /**
+     * Constructor for an empty arena
+     *
+     * @param capacity the number of boards that fit, at least 1
+     */
+    public BoardArena(long capacity) {
+        this.chunks = allocate(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Allocates zeroed chunks of direct memory with room for some longs
+     *
+     * @param longs the number of longs, at least 1
+     * @return the chunks, CHUNK_BOARDS longs in each but the last
+     */
+    static ByteBuffer[] allocate(long longs) {
+        if (longs < ONE) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((longs - ONE)
+                >>> CHUNK_BITS) + ONE];
+        for (int i = 0; i < chunks.length; i++) {
+            long left = longs - ((long) i << CHUNK_BITS);
+            chunks[i] = ByteBuffer.allocateDirect((int) Math.min(left,
+                    CHUNK_BOARDS) * Long.BYTES).order(ByteOrder.nativeOrder());
+        }
+        return chunks;
+    }
+
+    /**
+     * Adds a board to the end of the arena
+     *
+     * @param board the packed board
+     * @return true if it was added and false if the arena is full
+     */
+    public boolean add(long board) {
+        if (this.size == this.capacity) {
+            return false;
+        }
+        this.chunks[(int) (this.size >>> CHUNK_BITS)].putLong(
+                (int) (this.size & CHUNK_MASK) * Long.BYTES, board);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * get a board
+     *
+     * @param index the index of the board, in the order they were added
+     * @return the packed board
+     */
+    public long get(long index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("No board " + index);
+        }
+        return this.chunks[(int) (index >>> CHUNK_BITS)].getLong(
+                (int) (index & CHUNK_MASK) * Long.BYTES);
+    }
+
+    /**
+     * get the number of boards added
+     *
+     * @return the number of boards
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * get the number of boards that fit
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Checks to see if no more boards fit
+     *
+     * @return true if the arena is full
+     */
+    public boolean isFull() {
+        return this.size == this.capacity;
+    }
+
+    /**
+     * Removes every board, keeping the memory
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Writes every board to a file at its current position, in the order
+     * they were added and in the native byte order
+     *
+     * @param channel the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        long left = this.size;
+        for (int i = 0; left > 0; i++) {
+            int boards = (int) Math.min(left, CHUNK_BOARDS);
+            ByteBuffer chunk = this.chunks[i].duplicate();
+            chunk.position(0).limit(boards * Long.BYTES);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            left -= boards;
+        }
+    }
+}
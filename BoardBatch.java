@@ -0,0 +1,340 @@
+/**
+ * Many packed 4x4 boards kept side by side in one long[], so a move can be
+ * applied to all of them in a single tight loop instead of one Board at a
+ * time. Each loop is written for a single direction so there is no switch
+ * inside it, and which boards changed is written out as a bitmask, one bit
+ * per board, with no branch on the result.
+ *
+ * Bugs: None known
+ */
+
+public class BoardBatch {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Log2 of the number of boards in each word of a bitmask */
+    private static final int WORD_SHIFT = 6;
+
+    /* Number of boards in each word of a bitmask */
+    private static final int WORD_BOARDS = Long.SIZE;
+
+    /* The packed boards */
+    private final long[] boards;
+
+    /* Number of boards in the batch */
+    private int size;
+
+    /**
+     * Constructor for an empty batch
+     *
+     * @param capacity the most boards the batch can hold
+     */
+    public BoardBatch(int capacity) {
+        this.boards = new long[capacity];
+    }
+
+    /**
+     * Finds the number of longs a bitmask needs to hold a bit for each
+     * board
+     *
+     * @param size the number of boards
+     * @return the number of words
+     */
+    public static int maskWords(int size) {
+        return (size + WORD_BOARDS - ONE) >>> WORD_SHIFT;
+    }
+
+    /**
+     * Adds a packed board to the end of the batch
+     *
+     * @param board the packed board
+     * @return the index of the board
+     */
+    public int add(long board) {
+        if (this.size == this.boards.length) {
+            throw new IllegalStateException("Batch is full");
+        }
+        this.boards[this.size] = board;
+        return this.size++;
+    }
+
+    /**
+     * Adds a board to the end of the batch
+     * Precondition: the board is 4x4 and every tile is 0 or a power of two
+     *
+     * @param board the board
+     * @return the index of the board
+     */
+    public int add(Board board) {
+        return this.add(board.toBitBoard().getBoard());
+    }
+
+    /**
+     * get a packed board
+     *
+     * @param index the index of the board
+     * @return the packed board
+     */
+    public long get(int index) {
+        return this.boards[index];
+    }
+
+    /**
+     * set a packed board
+     *
+     * @param index the index of the board
+     * @param board the packed board
+     */
+    public void set(int index, long board) {
+        this.boards[index] = board;
+    }
+
+    /**
+     * get the number of boards in the batch
+     *
+     * @return the number of boards
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Empties the batch
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Moves every board of the batch in the same direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @param changed bitmask of at least maskWords(size()) words, bit i
+     *                being set if board i changed
+     * @return the number of boards that changed
+     */
+    public int move(Direction direction, long[] changed) {
+        switch (direction) {
+            case UP:
+                return this.moveUp(changed);
+            case RIGHT:
+                return this.moveRight(changed);
+            case DOWN:
+                return this.moveDown(changed);
+            case LEFT:
+            default:
+                return this.moveLeft(changed);
+        }
+    }
+
+    /**
+     * Checks every board of the batch for whether it can move in a
+     * direction, without moving any of them
+     *
+     * @param direction the tiles will move (if possible)
+     * @param canMove bitmask of at least maskWords(size()) words, bit i
+     *                being set if board i can move
+     * @return the number of boards that can move
+     */
+    public int canMove(Direction direction, long[] canMove) {
+        switch (direction) {
+            case UP:
+                return this.canMoveUp(canMove);
+            case RIGHT:
+                return this.canMoveRight(canMove);
+            case DOWN:
+                return this.canMoveDown(canMove);
+            case LEFT:
+            default:
+                return this.canMoveLeft(canMove);
+        }
+    }
+
+    /**
+     * Moves every board left
+     *
+     * @param changed bitmask of the boards that changed
+     * @return the number of boards that changed
+     */
+    private int moveLeft(long[] changed) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                long moved = BitBoard.moveLeft(board);
+                this.boards[i] = moved;
+                mask |= (moved != board ? 1L : 0L) << (i - start);
+            }
+            changed[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Moves every board right
+     *
+     * @param changed bitmask of the boards that changed
+     * @return the number of boards that changed
+     */
+    private int moveRight(long[] changed) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                long moved = BitBoard.moveRight(board);
+                this.boards[i] = moved;
+                mask |= (moved != board ? 1L : 0L) << (i - start);
+            }
+            changed[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Moves every board up
+     *
+     * @param changed bitmask of the boards that changed
+     * @return the number of boards that changed
+     */
+    private int moveUp(long[] changed) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                long moved = BitBoard.moveUp(board);
+                this.boards[i] = moved;
+                mask |= (moved != board ? 1L : 0L) << (i - start);
+            }
+            changed[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Moves every board down
+     *
+     * @param changed bitmask of the boards that changed
+     * @return the number of boards that changed
+     */
+    private int moveDown(long[] changed) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                long moved = BitBoard.moveDown(board);
+                this.boards[i] = moved;
+                mask |= (moved != board ? 1L : 0L) << (i - start);
+            }
+            changed[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Checks which boards can move left
+     *
+     * @param canMove bitmask of the boards that can move
+     * @return the number of boards that can move
+     */
+    private int canMoveLeft(long[] canMove) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                mask |= (BitBoard.moveLeft(board) != board ? 1L : 0L)
+                        << (i - start);
+            }
+            canMove[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Checks which boards can move right
+     *
+     * @param canMove bitmask of the boards that can move
+     * @return the number of boards that can move
+     */
+    private int canMoveRight(long[] canMove) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                mask |= (BitBoard.moveRight(board) != board ? 1L : 0L)
+                        << (i - start);
+            }
+            canMove[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Checks which boards can move up
+     *
+     * @param canMove bitmask of the boards that can move
+     * @return the number of boards that can move
+     */
+    private int canMoveUp(long[] canMove) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                mask |= (BitBoard.moveUp(board) != board ? 1L : 0L)
+                        << (i - start);
+            }
+            canMove[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+
+    /**
+     * Checks which boards can move down
+     *
+     * @param canMove bitmask of the boards that can move
+     * @return the number of boards that can move
+     */
+    private int canMoveDown(long[] canMove) {
+        int count = 0;
+        for (int w = 0; w < maskWords(this.size); w++) {
+            int start = w << WORD_SHIFT;
+            int end = Math.min(start + WORD_BOARDS, this.size);
+            long mask = 0;
+            for (int i = start; i < end; i++) {
+                long board = this.boards[i];
+                mask |= (BitBoard.moveDown(board) != board ? 1L : 0L)
+                        << (i - start);
+            }
+            canMove[w] = mask;
+            count += Long.bitCount(mask);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,176 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of a board. A 4x4 board is packed into 8 bytes the
+ * same way BitBoard packs it, one 4-bit exponent per tile. Larger boards can
+ * hold bigger tiles, so they use 5 bits per tile, packed one after another
+ * starting at the lowest bit of the first byte.
+ *
+ * Bugs: None known
+ */
+
+public class BoardCodec {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of bits used for a tile on a 4x4 board */
+    private static final int TILE_BITS = 4;
+
+    /* Number of bits used for a tile on a board of any other size */
+    private static final int WIDE_TILE_BITS = 5;
+
+    /* Mask for a tile on a board of any other size */
+    private static final int WIDE_TILE_MASK = 0x1F;
+
+    /* Largest exponent of a tile on a board of any other size, the largest
+       power of two an int can hold */
+    private static final int MAX_WIDE_EXPONENT = Integer.SIZE - 2;
+
+    /* Number of bits in a byte */
+    private static final int BYTE_BITS = 8;
+
+    /* Mask for a byte */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * Finds the number of bytes a packed board takes
+     *
+     * @param size the number of rows and columns of the board
+     * @return the number of bytes
+     */
+    public static int packedBytes(int size) {
+        if (size == BitBoard.GRID_SIZE) {
+            return Long.BYTES;
+        }
+        return (size * size * WIDE_TILE_BITS + BYTE_BITS - ONE) / BYTE_BITS;
+    }
+
+    /**
+     * Packs a 4x4 board into a long
+     *
+     * @param tiles the 16 tiles of the board, row by row
+     * @return the packed board
+     */
+    public static long pack(int[] tiles) {
+        long packed = 0;
+        for (int i = 0; i < BitBoard.GRID_SIZE * BitBoard.GRID_SIZE; i++) {
+            packed |= (long) toExponent(tiles[i], BitBoard.GRID_SIZE)
+                    << (i * TILE_BITS);
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks a 4x4 board from a long
+     *
+     * @param packed the packed board
+     * @param tiles buffer of at least 16 tiles, filled in row by row
+     */
+    public static void unpack(long packed, int[] tiles) {
+        for (int i = 0; i < BitBoard.GRID_SIZE * BitBoard.GRID_SIZE; i++) {
+            tiles[i] = toValue((int) (packed >>> (i * TILE_BITS)) & 0xF);
+        }
+    }
+
+    /**
+     * Writes a packed board into a buffer at an index, without moving the
+     * position of the buffer
+     *
+     * @param tiles the tiles of the board, row by row
+     * @param size the number of rows and columns of the board
+     * @param out the buffer to write to
+     * @param index the index of the first byte to write
+     */
+    public static void write(int[] tiles, int size, ByteBuffer out,
+                             int index) {
+        if (size == BitBoard.GRID_SIZE) {
+            out.putLong(index, pack(tiles));
+            return;
+        }
+        // bits waiting to be written and how many of them there are
+        long bits = 0;
+        int count = 0;
+        for (int i = 0; i < size * size; i++) {
+            bits |= (long) toExponent(tiles[i], size) << count;
+            count += WIDE_TILE_BITS;
+            // writes every full byte
+            while (count >= BYTE_BITS) {
+                out.put(index++, (byte) bits);
+                bits >>>= BYTE_BITS;
+                count -= BYTE_BITS;
+            }
+        }
+        if (count > 0) {
+            out.put(index, (byte) bits);
+        }
+    }
+
+    /**
+     * Reads a packed board from a buffer at an index, without moving the
+     * position of the buffer
+     *
+     * @param in the buffer to read from
+     * @param index the index of the first byte to read
+     * @param size the number of rows and columns of the board
+     * @param tiles buffer of at least size * size tiles, filled in row by row
+     * @throws IllegalArgumentException if a stored tile is too large for an
+     *                                  int
+     */
+    public static void read(ByteBuffer in, int index, int size,
+                            int[] tiles) {
+        if (size == BitBoard.GRID_SIZE) {
+            unpack(in.getLong(index), tiles);
+            return;
+        }
+        // bits read but not used yet and how many of them there are
+        long bits = 0;
+        int count = 0;
+        for (int i = 0; i < size * size; i++) {
+            while (count < WIDE_TILE_BITS) {
+                bits |= (long) (in.get(index++) & BYTE_MASK) << count;
+                count += BYTE_BITS;
+            }
+            tiles[i] = toValue((int) bits & WIDE_TILE_MASK);
+            bits >>>= WIDE_TILE_BITS;
+            count -= WIDE_TILE_BITS;
+        }
+    }
+
+    /**
+     * Turns a tile value into the exponent stored for it
+     *
+     * @param value the tile value, 0 or a power of two
+     * @param size the number of rows and columns of the board
+     * @return the log2 of the value, or 0 for an empty tile
+     */
+    private static int toExponent(int value, int size) {
+        if (value == 0) {
+            return 0;
+        }
+        int exponent = Integer.numberOfTrailingZeros(value);
+        int maxExponent = size == BitBoard.GRID_SIZE ? 0xF
+                : MAX_WIDE_EXPONENT;
+        // only powers of two that fit in a tile can be packed
+        if (Integer.bitCount(value) != ONE || exponent == 0
+                || exponent > maxExponent) {
+            throw new IllegalArgumentException(
+                    "Tile value can't be packed: " + value);
+        }
+        return exponent;
+    }
+
+    /**
+     * Turns a stored exponent back into a tile value
+     *
+     * @param exponent the log2 of the value, or 0 for an empty tile
+     * @return the tile value
+     * @throws IllegalArgumentException if the value doesn't fit in an int
+     */
+    private static int toValue(int exponent) {
+        if (exponent > MAX_WIDE_EXPONENT) {
+            throw new IllegalArgumentException(
+                    "Stored exponent isn't a tile: " + exponent);
+        }
+        return exponent == 0 ? 0 : ONE << exponent;
+    }
+}
@@ -0,0 +1,157 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Set of packed boards kept off the heap, for finding duplicates among
+ * hundreds of millions of boards. Boards are stored in an open-addressing
+ * table of longs with linear probing, where 0 marks an empty slot; the
+ * empty board can't be stored, but it is never reached in a game either.
+ * The table doesn't grow, so callers check isFull and deal with it.
+ *
+ * Bugs: The empty board can't be added
+ */
+
+public class BoardHashSet {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int PERCENT = 100;
+
+    /* Marks an empty slot */
+    private static final long EMPTY = 0;
+
+    /* Percentage of slots that can be used before the set is full */
+    private static final int LOAD_PERCENT = 75;
+
+    /* Spreads the bits of a board before it is used as a hash */
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    /* The slots, BoardArena.CHUNK_BOARDS in each chunk but the last */
+    private final ByteBuffer[] chunks;
+
+    /* Number of slots minus 1, the number of slots being a power of two */
+    private final long mask;
+
+    /* Number of bits of the hash used to pick a slot */
+    private final int bits;
+
+    /* Number of boards that can be added before the set is full */
+    private final long limit;
+
+    /* Number of boards added */
+    private long size;
+
+    /**
+     * Constructor for an empty set
+     *
+     * @param slots the most slots to use, rounded down to a power of two
+     */
+    public BoardHashSet(long slots) {
+        long used = Long.highestOneBit(Math.max(slots, ONE + ONE));
+        this.chunks = BoardArena.allocate(used);
+        this.mask = used - ONE;
+        this.bits = Long.numberOfTrailingZeros(used);
+        this.limit = used / PERCENT * LOAD_PERCENT
+                + used % PERCENT * LOAD_PERCENT / PERCENT;
+    }
+
+    /**
+     * Spreads the bits of a board, so that boards which differ only in a
+     * few tiles get very different hashes
+     *
+     * @param board the packed board
+     * @return the hash
+     */
+    public static long hash(long board) {
+        long h = board * MIX;
+        return h ^ (h >>> Integer.SIZE);
+    }
+
+    /**
+     * Adds a board if it isn't in the set yet
+     * Precondition: the board isn't empty
+     *
+     * @param board the packed board
+     * @return true if it was added and false if it was already there
+     * @throws IllegalStateException if the set is full
+     */
+    public boolean add(long board) {
+        long slot = hash(board) >>> (Long.SIZE - this.bits);
+        while (true) {
+            long found = this.get(slot);
+            if (found == board) {
+                return false;
+            }
+            if (found == EMPTY) {
+                if (this.isFull()) {
+                    throw new IllegalStateException("Set is full");
+                }
+                this.chunks[(int) (slot >>> BoardArena.CHUNK_BITS)].putLong(
+                        (int) (slot & BoardArena.CHUNK_MASK) * Long.BYTES,
+                        board);
+                this.size++;
+                return true;
+            }
+            slot = (slot + ONE) & this.mask;
+        }
+    }
+
+    /**
+     * Checks to see if a board is in the set
+     *
+     * @param board the packed board
+     * @return true if it was added before
+     */
+    public boolean contains(long board) {
+        long slot = hash(board) >>> (Long.SIZE - this.bits);
+        while (true) {
+            long found = this.get(slot);
+            if (found == board) {
+                return board != EMPTY;
+            }
+            if (found == EMPTY) {
+                return false;
+            }
+            slot = (slot + ONE) & this.mask;
+        }
+    }
+
+    /**
+     * get the board in a slot
+     *
+     * @param slot the slot
+     * @return the packed board, or EMPTY
+     */
+    private long get(long slot) {
+        return this.chunks[(int) (slot >>> BoardArena.CHUNK_BITS)].getLong(
+                (int) (slot & BoardArena.CHUNK_MASK) * Long.BYTES);
+    }
+
+    /**
+     * get the number of boards in the set
+     *
+     * @return the number of boards
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Checks to see if the set has as many boards as it can hold
+     *
+     * @return true if no more boards can be added
+     */
+    public boolean isFull() {
+        return this.size >= this.limit;
+    }
+
+    /**
+     * Removes every board, keeping the memory
+     */
+    public void clear() {
+        for (ByteBuffer chunk : this.chunks) {
+            for (int i = 0; i < chunk.capacity(); i += Long.BYTES) {
+                chunk.putLong(i, EMPTY);
+            }
+        }
+        this.size = 0;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Bounded undo and redo history for a Board. Each saved board takes one
+ * byte per tile (the log2 of the tile plus one, or 0 for an empty tile) in
+ * a ring buffer, so a 4x4 board takes 16 bytes instead of a new int[][].
+ * Once the history is full the oldest board is overwritten. Saving,
+ * undoing and redoing only copy a single board, no matter how deep the
+ * history is.
+ *
+ * Bugs: Only tiles that are 0 or a power of two can be saved
+ */
+
+public class BoardHistory {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of tiles on each board */
+    private final int tiles;
+
+    /* Most boards kept for undo, and for redo */
+    private final int depth;
+
+    /* Number of slots in the undo ring, one more than depth so a board can
+       be staged without overwriting one that can still be undone to */
+    private final int slots;
+
+    /* Ring buffer of boards that can be undone to */
+    private final byte[] undoBoards;
+
+    /* Slot the next board to undo to goes into */
+    private int undoNext;
+
+    /* Number of boards that can be undone to */
+    private int undoCount;
+
+    /* Stack of boards that can be redone to, which never wraps since it
+       can't grow larger than the number of boards undone */
+    private final byte[] redoBoards;
+
+    /* Number of boards that can be redone to */
+    private int redoCount;
+
+    /**
+     * Constructor for an empty history
+     *
+     * @param size the number of rows and columns of the board
+     * @param depth the most moves that can be undone, at least 1
+     */
+    public BoardHistory(int size, int depth) {
+        if (depth < ONE) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.tiles = size * size;
+        this.depth = depth;
+        this.slots = depth + ONE;
+        this.undoBoards = new byte[this.slots * this.tiles];
+        this.redoBoards = new byte[depth * this.tiles];
+    }
+
+    /**
+     * Saves a board into the next slot without keeping it yet, so it can
+     * be kept with commit once a move turns out to change the board
+     *
+     * @param grid the board to save
+     */
+    public void stage(int[][] grid) {
+        save(grid, this.undoBoards, this.undoNext * this.tiles);
+    }
+
+    /**
+     * Keeps the board saved by stage so it can be undone to, and forgets
+     * every board that could be redone to since this is a new move
+     * Precondition: stage was just called
+     */
+    public void commit() {
+        this.undoNext = (this.undoNext + ONE) % this.slots;
+        this.undoCount = Math.min(this.undoCount + ONE, this.depth);
+        this.redoCount = 0;
+    }
+
+    /**
+     * Puts the last saved board back into the grid, keeping the current
+     * board so it can be redone to
+     *
+     * @param grid the board to change
+     * @return true if there was a board to undo to and false otherwise
+     */
+    public boolean undo(int[][] grid) {
+        if (this.undoCount == 0) {
+            return false;
+        }
+        save(grid, this.redoBoards, this.redoCount * this.tiles);
+        this.redoCount++;
+        this.undoNext = (this.undoNext + this.depth) % this.slots;
+        this.undoCount--;
+        load(this.undoBoards, this.undoNext * this.tiles, grid);
+        return true;
+    }
+
+    /**
+     * Puts the last undone board back into the grid, keeping the current
+     * board so it can be undone to again
+     *
+     * @param grid the board to change
+     * @return true if there was a board to redo to and false otherwise
+     */
+    public boolean redo(int[][] grid) {
+        if (this.redoCount == 0) {
+            return false;
+        }
+        save(grid, this.undoBoards, this.undoNext * this.tiles);
+        this.undoNext = (this.undoNext + ONE) % this.slots;
+        this.undoCount = Math.min(this.undoCount + ONE, this.depth);
+        this.redoCount--;
+        load(this.redoBoards, this.redoCount * this.tiles, grid);
+        return true;
+    }
+
+    /**
+     * get the number of moves that can be undone
+     *
+     * @return the number of boards to undo to
+     */
+    public int getUndoCount() {
+        return this.undoCount;
+    }
+
+    /**
+     * get the number of undone moves that can be redone
+     *
+     * @return the number of boards to redo to
+     */
+    public int getRedoCount() {
+        return this.redoCount;
+    }
+
+    /**
+     * Forgets every saved board
+     */
+    public void clear() {
+        this.undoCount = 0;
+        this.redoCount = 0;
+    }
+
+    /**
+     * Saves a board into a buffer, one byte per tile
+     *
+     * @param grid the board to save
+     * @param boards the buffer to save into
+     * @param start the index of the first byte to write
+     */
+    private static void save(int[][] grid, byte[] boards, int start) {
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid.length; c++) {
+                int value = grid[r][c];
+                // only powers of two can be turned back into the same tile
+                if ((value & (value - ONE)) != 0 || value < 0) {
+                    throw new IllegalStateException(
+                            "Tile can't be saved in history: " + value);
+                }
+                boards[start++] = (byte) (value == 0 ? 0
+                        : Integer.numberOfTrailingZeros(value) + ONE);
+            }
+        }
+    }
+
+    /**
+     * Loads a board from a buffer
+     *
+     * @param boards the buffer to load from
+     * @param start the index of the first byte to read
+     * @param grid the board to change
+     */
+    private static void load(byte[] boards, int start, int[][] grid) {
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid.length; c++) {
+                int exponent = boards[start++];
+                grid[r][c] = exponent == 0 ? 0 : ONE << (exponent - ONE);
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for what Boards do, turned on for a Board with
+ * Board.enableMetrics. One BoardMetrics can be shared by every Board of a
+ * process, since each counter is a LongAdder and threads only contend when
+ * they hit the same stripe. A Board without metrics only pays a null check.
+ * <p/>
+ * Move latencies go into a histogram in the style of HdrHistogram: every
+ * power of two of nanoseconds is split into SUB_BUCKETS linear buckets, so
+ * any latency is kept to within 1/SUB_BUCKETS of its value in a fixed
+ * number of counters.
+ *
+ * Bugs: Latencies include the cost of System.nanoTime, which is about as
+ *       long as a 4x4 move
+ */
+
+public class BoardMetrics {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final double HUNDRED = 100.0;
+
+    /* Log2 of the number of linear buckets in each power of two */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /* Number of linear buckets in each power of two */
+    private static final int SUB_BUCKETS = ONE << SUB_BUCKET_BITS;
+
+    /* Latencies below this many nanoseconds each get their own bucket */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    /* Number of buckets needed to hold any long latency */
+    private static final int LATENCY_BUCKETS =
+            (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /* Number of moves asked for, and of those that didn't change the board,
+       for each direction */
+    private final LongAdder[] moves = newAdders(Direction.COUNT);
+    private final LongAdder[] rejectedMoves = newAdders(Direction.COUNT);
+
+    /* Number of canMove checks, and of those that returned false, for each
+       direction */
+    private final LongAdder[] canMoves = newAdders(Direction.COUNT);
+    private final LongAdder[] rejectedCanMoves = newAdders(Direction.COUNT);
+
+    /* Number of pairs merged by every move */
+    private final LongAdder merges = new LongAdder();
+
+    /* Number of calls to rotate, getGrid and setGrid */
+    private final LongAdder rotates = new LongAdder();
+    private final LongAdder gridCopies = new LongAdder();
+    private final LongAdder gridSets = new LongAdder();
+
+    /* Number of arrays and objects Board methods allocated */
+    private final LongAdder allocations = new LongAdder();
+
+    /* Number of moves that took each bucket of nanoseconds */
+    private final AtomicLongArray latencies =
+            new AtomicLongArray(LATENCY_BUCKETS);
+
+    /**
+     * Counts a move
+     *
+     * @param direction the direction of the move
+     * @param moved whether the move changed the board
+     * @param merges the number of pairs the move merged
+     * @param nanos how long the move took
+     */
+    public void recordMove(Direction direction, boolean moved, int merges,
+            long nanos) {
+        this.moves[direction.ordinal()].increment();
+        if (!moved) {
+            this.rejectedMoves[direction.ordinal()].increment();
+        }
+        this.merges.add(merges);
+        this.latencies.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * Counts a canMove check
+     *
+     * @param direction the direction checked
+     * @param canMove what the check returned
+     */
+    public void recordCanMove(Direction direction, boolean canMove) {
+        this.canMoves[direction.ordinal()].increment();
+        if (!canMove) {
+            this.rejectedCanMoves[direction.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts a rotate
+     */
+    public void recordRotate() {
+        this.rotates.increment();
+    }
+
+    /**
+     * Counts a getGrid and the arrays it allocated
+     *
+     * @param arrays the number of arrays allocated for the copy
+     */
+    public void recordGridCopy(int arrays) {
+        this.gridCopies.increment();
+        this.allocations.add(arrays);
+    }
+
+    /**
+     * Counts a setGrid
+     */
+    public void recordGridSet() {
+        this.gridSets.increment();
+    }
+
+    /**
+     * Counts objects allocated by any other Board method
+     *
+     * @param count the number of objects allocated
+     */
+    public void recordAllocations(int count) {
+        this.allocations.add(count);
+    }
+
+    /**
+     * Copies every counter. Counters keep changing while they are copied,
+     * so a snapshot taken while Boards are moving is close but not exact.
+     *
+     * @return the copy
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Sets every counter back to 0
+     */
+    public void reset() {
+        for (int d = 0; d < Direction.COUNT; d++) {
+            this.moves[d].reset();
+            this.rejectedMoves[d].reset();
+            this.canMoves[d].reset();
+            this.rejectedCanMoves[d].reset();
+        }
+        this.merges.reset();
+        this.rotates.reset();
+        this.gridCopies.reset();
+        this.gridSets.reset();
+        this.allocations.reset();
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            this.latencies.set(i, 0);
+        }
+    }
+
+    /**
+     * Finds the histogram bucket of a latency
+     *
+     * @param nanos the latency, at least 0
+     * @return the bucket
+     */
+    private static int bucket(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int) nanos;
+        }
+        // keeps the top SUB_BUCKET_BITS + 1 bits of the latency
+        int shift = Long.SIZE - ONE - Long.numberOfLeadingZeros(nanos)
+                - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+    }
+
+    /**
+     * Finds the largest latency that goes into a bucket
+     *
+     * @param bucket the bucket
+     * @return the largest latency in nanoseconds
+     */
+    private static long highestInBucket(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - ONE;
+        long lowest = (long) (bucket & (SUB_BUCKETS - ONE) | SUB_BUCKETS)
+                << shift;
+        return lowest + (1L << shift) - ONE;
+    }
+
+    /**
+     * Makes an array of new LongAdders
+     *
+     * @param count the number of adders
+     * @return the adders
+     */
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Copies the sums of an array of LongAdders
+     *
+     * @param adders the adders
+     * @return the sums
+     */
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+
+    /**
+     * Copy of every counter of a BoardMetrics at one point in time, which
+     * doesn't change afterwards
+     */
+    public static final class Snapshot {
+        /* Copies of the counters, see BoardMetrics */
+        private final long[] moves;
+        private final long[] rejectedMoves;
+        private final long[] canMoves;
+        private final long[] rejectedCanMoves;
+        private final long merges;
+        private final long rotates;
+        private final long gridCopies;
+        private final long gridSets;
+        private final long allocations;
+        private final long[] latencies;
+
+        /* Number of moves in the latency histogram */
+        private final long latencyCount;
+
+        /**
+         * Constructor used to copy the counters
+         *
+         * @param metrics the counters to copy
+         */
+        private Snapshot(BoardMetrics metrics) {
+            this.moves = sums(metrics.moves);
+            this.rejectedMoves = sums(metrics.rejectedMoves);
+            this.canMoves = sums(metrics.canMoves);
+            this.rejectedCanMoves = sums(metrics.rejectedCanMoves);
+            this.merges = metrics.merges.sum();
+            this.rotates = metrics.rotates.sum();
+            this.gridCopies = metrics.gridCopies.sum();
+            this.gridSets = metrics.gridSets.sum();
+            this.allocations = metrics.allocations.sum();
+            this.latencies = new long[LATENCY_BUCKETS];
+            long count = 0;
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                this.latencies[i] = metrics.latencies.get(i);
+                count += this.latencies[i];
+            }
+            this.latencyCount = count;
+        }
+
+        /**
+         * get the number of moves asked for in a direction
+         *
+         * @param direction the direction
+         * @return the number of moves
+         */
+        public long getMoves(Direction direction) {
+            return this.moves[direction.ordinal()];
+        }
+
+        /**
+         * get the number of moves in a direction that didn't change the
+         * board
+         *
+         * @param direction the direction
+         * @return the number of rejected moves
+         */
+        public long getRejectedMoves(Direction direction) {
+            return this.rejectedMoves[direction.ordinal()];
+        }
+
+        /**
+         * get the number of moves asked for in every direction
+         *
+         * @return the number of moves
+         */
+        public long getTotalMoves() {
+            long total = 0;
+            for (long count : this.moves) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * get the share of moves that didn't change the board
+         *
+         * @return the rejected moves over every move, or 0 if there were
+         *         none
+         */
+        public double getRejectedMoveRate() {
+            long total = this.getTotalMoves();
+            long rejected = 0;
+            for (long count : this.rejectedMoves) {
+                rejected += count;
+            }
+            return total == 0 ? 0 : (double) rejected / total;
+        }
+
+        /**
+         * get the number of canMove checks in a direction
+         *
+         * @param direction the direction
+         * @return the number of checks
+         */
+        public long getCanMoves(Direction direction) {
+            return this.canMoves[direction.ordinal()];
+        }
+
+        /**
+         * get the share of canMove checks in a direction that returned
+         * false
+         *
+         * @param direction the direction
+         * @return the false checks over every check, or 0 if there were
+         *         none
+         */
+        public double getCanMoveRejectedRate(Direction direction) {
+            long total = this.canMoves[direction.ordinal()];
+            return total == 0 ? 0
+                    : (double) this.rejectedCanMoves[direction.ordinal()]
+                    / total;
+        }
+
+        /**
+         * get the mean number of pairs merged by a move that changed the
+         * board
+         *
+         * @return the merges per move, or 0 if no move changed the board
+         */
+        public double getMergesPerMove() {
+            long moved = this.getTotalMoves();
+            for (long count : this.rejectedMoves) {
+                moved -= count;
+            }
+            return moved == 0 ? 0 : (double) this.merges / moved;
+        }
+
+        /**
+         * get the number of calls to rotate
+         *
+         * @return the number of rotates
+         */
+        public long getRotates() {
+            return this.rotates;
+        }
+
+        /**
+         * get the number of calls to getGrid
+         *
+         * @return the number of grid copies
+         */
+        public long getGridCopies() {
+            return this.gridCopies;
+        }
+
+        /**
+         * get the number of calls to setGrid
+         *
+         * @return the number of grid sets
+         */
+        public long getGridSets() {
+            return this.gridSets;
+        }
+
+        /**
+         * get the number of arrays and objects Board methods allocated
+         *
+         * @return the number of allocations
+         */
+        public long getAllocations() {
+            return this.allocations;
+        }
+
+        /**
+         * get the latency that a percentage of moves were at or below,
+         * within the precision of the histogram
+         *
+         * @param percentile the percentage, 0 to 100
+         * @return the latency in nanoseconds, or 0 if there were no moves
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (this.latencyCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(ONE, (long) Math.ceil(
+                    percentile / HUNDRED * this.latencyCount));
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                seen += this.latencies[i];
+                if (seen >= rank) {
+                    return highestInBucket(i);
+                }
+            }
+            return highestInBucket(LATENCY_BUCKETS - ONE);
+        }
+
+        /**
+         * Return the counters as a String
+         *
+         * @return the moves, rejects, merges and latencies
+         */
+        public String report() {
+            StringBuilder report = new StringBuilder();
+            for (int d = 0; d < Direction.COUNT; d++) {
+                Direction direction = Direction.get(d);
+                report.append(String.format("%-5s moves %d, rejected %d, "
+                        + "canMove %d (%.1f%% false)%n", direction,
+                        this.getMoves(direction),
+                        this.getRejectedMoves(direction),
+                        this.getCanMoves(direction),
+                        this.getCanMoveRejectedRate(direction) * HUNDRED));
+            }
+            report.append(String.format(
+                    "rejected %.1f%%, merges/move %.2f%n",
+                    this.getRejectedMoveRate() * HUNDRED,
+                    this.getMergesPerMove()));
+            report.append(String.format(
+                    "rotates %d, getGrid %d, setGrid %d, allocations %d%n",
+                    this.rotates, this.gridCopies, this.gridSets,
+                    this.allocations));
+            report.append(String.format(
+                    "move ns p50 %d, p99 %d, p99.9 %d%n",
+                    this.getLatencyPercentile(50),
+                    this.getLatencyPercentile(99),
+                    this.getLatencyPercentile(99.9)));
+            return report.toString();
+        }
+    }
+}
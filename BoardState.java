@@ -0,0 +1,169 @@
+/**
+ * Immutable 4x4 board for search trees, where positions are shared between
+ * branches and used as keys. The whole board is one packed long in the
+ * same layout BitBoard uses, and the hash is worked out once when the state
+ * is made, so hashing and comparing states never looks at the tiles again.
+ * Moving or spawning a tile makes a new state and leaves this one as it is.
+ * <p/>
+ * States reached by many branches can be shared through a BoardStatePool.
+ *
+ * Bugs: Two 32768 tiles don't merge, the same as in BitBoard
+ */
+
+public final class BoardState {
+    /* Defined to avoid magic number */
+    private static final int TILE_BITS = 4;
+    private static final int TILE_MASK = 0xF;
+    private static final int ONE = 1;
+
+    /* The packed tiles */
+    private final long board;
+
+    /* Hash of the packed tiles */
+    private final int hash;
+
+    /**
+     * Constructor for a state of a packed board
+     *
+     * @param board the packed tiles
+     */
+    private BoardState(long board) {
+        this.board = board;
+        long h = board * 0x9E3779B97F4A7C15L;
+        this.hash = (int) (h ^ (h >>> Integer.SIZE));
+    }
+
+    /**
+     * Makes the state of a packed board
+     *
+     * @param board the packed tiles
+     * @return the state
+     */
+    public static BoardState of(long board) {
+        return new BoardState(board);
+    }
+
+    /**
+     * Makes the state of a 2d board
+     * Precondition: the grid is 4x4 and every tile is 0 or a power of two
+     *
+     * @param grid the tiles
+     * @return the state
+     */
+    public static BoardState of(int[][] grid) {
+        return new BoardState(BitBoard.pack(grid));
+    }
+
+    /**
+     * Makes the state of a Board
+     * Precondition: the board is 4x4 and every tile is 0 or a power of two
+     *
+     * @param board the board
+     * @return the state
+     */
+    public static BoardState of(Board board) {
+        return new BoardState(board.toBitBoard().getBoard());
+    }
+
+    /**
+     * get the packed tiles
+     *
+     * @return the packed board, the same as BitBoard uses
+     */
+    public long getBoard() {
+        return this.board;
+    }
+
+    /**
+     * get a new 2d copy of the tiles
+     *
+     * @return the tiles
+     */
+    public int[][] getGrid() {
+        return BitBoard.unpack(this.board);
+    }
+
+    /**
+     * get a single tile
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the tile value, 0 if it is empty
+     */
+    public int getTile(int row, int col) {
+        int shift = (row * BitBoard.GRID_SIZE + col) * TILE_BITS;
+        int exponent = (int) (this.board >>> shift) & TILE_MASK;
+        return exponent == 0 ? 0 : ONE << exponent;
+    }
+
+    /**
+     * Makes the state after a move
+     *
+     * @param direction the tiles will move (if possible)
+     * @return the moved state, or this state if the move can't be done
+     */
+    public BoardState withMove(Direction direction) {
+        long moved = BitBoard.move(this.board, direction);
+        return moved == this.board ? this : new BoardState(moved);
+    }
+
+    /**
+     * Makes the state with a tile put down, such as one that spawned
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param value the new tile, 0 or a power of two up to 32768
+     * @return the changed state
+     */
+    public BoardState withTile(int row, int col, int value) {
+        int shift = (row * BitBoard.GRID_SIZE + col) * TILE_BITS;
+        long exponent = value == 0 ? 0 : Integer.numberOfTrailingZeros(value);
+        return new BoardState((this.board & ~((long) TILE_MASK << shift))
+                | (exponent << shift));
+    }
+
+    /**
+     * Checks to see if the tiles can move in a direction
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean canMove(Direction direction) {
+        return BitBoard.move(this.board, direction) != this.board;
+    }
+
+    /**
+     * Checks to see if the tiles can move in any direction
+     *
+     * @return true if some move can be done and false otherwise
+     */
+    public boolean hasAnyMove() {
+        return BitBoard.hasAnyMove(this.board);
+    }
+
+    /**
+     * Makes the state shared by this board and the 7 boards symmetric to it
+     *
+     * @return the canonical state
+     */
+    public BoardState canonical() {
+        long key = Symmetry.canonical(this.board);
+        return key == this.board ? this : new BoardState(key);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof BoardState
+                && ((BoardState) other).board == this.board;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return new Board(this.getGrid()).boardToString();
+    }
+}
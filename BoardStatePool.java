@@ -0,0 +1,84 @@
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Shares one BoardState for each position, so that the many branches of a
+ * search tree that reach the same position hold the same object instead of
+ * a copy each. States are only weakly held, so a position no branch uses
+ * anymore is dropped by the garbage collector. The pool is split into
+ * stripes, each its own WeakHashMap with its own lock, so threads only wait
+ * on each other when they intern states of the same stripe.
+ *
+ * Bugs: None known
+ */
+
+public class BoardStatePool {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of stripes, a power of two */
+    private static final int STRIPES = 64;
+
+    /* The states of each stripe, each one mapped to a weak reference to
+       itself so that the map doesn't keep it alive */
+    private final WeakHashMap<BoardState, WeakReference<BoardState>>[] maps;
+
+    /**
+     * Constructor for an empty pool
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BoardStatePool() {
+        this.maps = new WeakHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.maps[i] = new WeakHashMap<>();
+        }
+    }
+
+    /**
+     * Finds the shared state of a position, adding this state as the shared
+     * one if there isn't one yet
+     *
+     * @param state the state to look up
+     * @return the shared state, equal to the one given
+     */
+    public BoardState intern(BoardState state) {
+        WeakHashMap<BoardState, WeakReference<BoardState>> map =
+                this.maps[state.hashCode() & (STRIPES - ONE)];
+        synchronized (map) {
+            WeakReference<BoardState> shared = map.get(state);
+            BoardState existing = shared == null ? null : shared.get();
+            if (existing != null) {
+                return existing;
+            }
+            map.put(state, new WeakReference<>(state));
+            return state;
+        }
+    }
+
+    /**
+     * Finds the shared state of a packed board
+     *
+     * @param board the packed tiles
+     * @return the shared state
+     */
+    public BoardState intern(long board) {
+        return this.intern(BoardState.of(board));
+    }
+
+    /**
+     * get the number of states in the pool, some of which may be about to
+     * be dropped
+     *
+     * @return the number of states
+     */
+    public int size() {
+        int size = 0;
+        for (WeakHashMap<BoardState, WeakReference<BoardState>> map
+                : this.maps) {
+            synchronized (map) {
+                size += map.size();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * The four directions the tiles of a board can move in. Using these instead
+ * of the direction strings skips the String.equals chains on every move.
+ *
+ * Bugs: None known
+ */
+
+public enum Direction {
+    LEFT, RIGHT, UP, DOWN;
+
+    /* Cached copy of values() since values() makes a new array each call */
+    private static final Direction[] VALUES = values();
+
+    /* Number of directions */
+    public static final int COUNT = VALUES.length;
+
+    /**
+     * Looks up a direction by its ordinal without allocating
+     *
+     * @param ordinal the ordinal of the direction
+     * @return the direction with that ordinal
+     */
+    public static Direction get(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Looks up a direction by its string
+     *
+     * @param direction one of "LEFT", "RIGHT", "UP" or "DOWN"
+     * @return the matching direction, or null if there is none
+     */
+    public static Direction fromString(String direction) {
+        switch (direction) {
+            case "LEFT":
+                return LEFT;
+            case "RIGHT":
+                return RIGHT;
+            case "UP":
+                return UP;
+            case "DOWN":
+                return DOWN;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds every 4x4 position that can be reached after each number of moves,
+ * one level at a time. Level 0 is the boards a search starts from, and the
+ * next level is every board reached from a board of this level by a move
+ * followed by a 2 or 4 spawning in any empty tile, counted once.
+ * <p/>
+ * Boards are packed longs kept off the heap. A level is kept in a
+ * BoardArena and, once that is full, spilled to a temporary file, so a
+ * level can hold far more boards than fit in memory. Duplicates are found
+ * with a BoardHashSet, which does have to fit in memory, so when a level
+ * has too many boards for it the level is worked out again in partitions:
+ * each pass reads the whole current level but only keeps the boards whose
+ * hash falls in its partition, so each pass fits in the set and the passes
+ * never produce the same board.
+ * <p/>
+ * Moves are done by BitBoard, which follows the same rules as Board.move.
+ *
+ * Bugs: Two 32768 tiles don't merge, the same as in BitBoard
+ */
+
+public class FrontierExplorer implements Closeable {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int TILE_BITS = 4;
+    private static final int TILE_MASK = 0xF;
+    private static final int NUM_TILES = 16;
+
+    /* Exponents of the tiles that can spawn */
+    private static final long TWO_EXPONENT = 1;
+    private static final long FOUR_EXPONENT = 2;
+
+    /* Parts of the memory budget given to each of the two levels being
+       worked on and to the set, out of MEMORY_PARTS */
+    private static final int MEMORY_PARTS = 4;
+    private static final int LEVEL_PARTS = 1;
+    private static final int SET_PARTS = 2;
+
+    /* Number of boards read at a time from a level */
+    private static final int READ_BOARDS = 1 << 16;
+
+    /* Defaults for the command line */
+    private static final int DEFAULT_LEVELS = 10;
+    private static final long DEFAULT_MEMORY_MEGABYTES = 64;
+
+    /* Used to turn bytes into megabytes */
+    private static final long BYTES_PER_MEGABYTE = 1 << 20;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* Directory spill files are made in */
+    private final Path spillDirectory;
+
+    /* Whether boards are replaced by their canonical board, so that the 8
+       boards symmetric to each other count as one */
+    private final boolean canonical;
+
+    /* Boards seen in the current pass */
+    private final BoardHashSet seen;
+
+    /* The level reached and the level being worked out */
+    private Frontier current;
+    private Frontier next;
+
+    /* Number of passes each level is worked out in */
+    private int partitions = ONE;
+
+    /* Number of moves made to reach the current level */
+    private int level;
+
+    /* Number of boards of the last level expanded with no move left */
+    private long gameOvers;
+
+    /* Reused buffer of boards read from a level */
+    private final long[] boards = new long[READ_BOARDS];
+
+    /**
+     * Constructor for an explorer with nothing to start from
+     *
+     * @param memoryBytes the off-heap memory to use for boards
+     * @param spillDirectory the directory to spill levels to
+     * @param canonical true to count boards symmetric to each other once
+     */
+    public FrontierExplorer(long memoryBytes, Path spillDirectory,
+            boolean canonical) {
+        long levelBoards = Math.max(ONE, memoryBytes / MEMORY_PARTS
+                * LEVEL_PARTS / Long.BYTES);
+        this.spillDirectory = spillDirectory;
+        this.canonical = canonical;
+        this.seen = new BoardHashSet(memoryBytes / MEMORY_PARTS * SET_PARTS
+                / Long.BYTES);
+        this.current = new Frontier(new BoardArena(levelBoards),
+                spillDirectory);
+        this.next = new Frontier(new BoardArena(levelBoards), spillDirectory);
+    }
+
+    /**
+     * Makes every board a new game can start with: two tiles, each a 2 or
+     * a 4
+     *
+     * @return the packed boards
+     */
+    public static long[] newGames() {
+        long[] games = new long[NUM_TILES * (NUM_TILES - ONE) / TWO
+                * TWO * TWO];
+        int count = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            for (int j = i + ONE; j < NUM_TILES; j++) {
+                for (long a = TWO_EXPONENT; a <= FOUR_EXPONENT; a++) {
+                    for (long b = TWO_EXPONENT; b <= FOUR_EXPONENT; b++) {
+                        games[count++] = (a << (i * TILE_BITS))
+                                | (b << (j * TILE_BITS));
+                    }
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Makes some boards level 0, throwing away any level reached before
+     *
+     * @param starts the packed boards, none of them empty
+     * @throws IOException if a spill file can't be written
+     */
+    public void start(long... starts) throws IOException {
+        this.current.clear();
+        this.seen.clear();
+        for (long board : starts) {
+            long key = this.canonical ? Symmetry.canonical(board) : board;
+            if (this.seen.add(key)) {
+                this.current.add(key);
+            }
+        }
+        this.level = 0;
+        this.gameOvers = 0;
+    }
+
+    /**
+     * Works out the next level from the current one and makes it current
+     *
+     * @return the number of boards in the new level
+     * @throws IOException if a level can't be read or spilled
+     */
+    public long expand() throws IOException {
+        while (true) {
+            this.next.clear();
+            this.gameOvers = 0;
+            boolean fits = true;
+            for (int p = 0; p < this.partitions && fits; p++) {
+                fits = this.expandPartition(p);
+            }
+            if (fits) {
+                break;
+            }
+            // starts over with passes half the size
+            this.partitions *= TWO;
+        }
+        Frontier done = this.current;
+        this.current = this.next;
+        this.next = done;
+        this.next.clear();
+        this.level++;
+        return this.current.size();
+    }
+
+    /**
+     * Adds to the next level the boards of one partition reached from the
+     * current level
+     *
+     * @param partition the partition to keep
+     * @return true if the pass finished and false if the set filled up
+     * @throws IOException if a level can't be read or spilled
+     */
+    private boolean expandPartition(int partition) throws IOException {
+        this.seen.clear();
+        long size = this.current.size();
+        for (long first = 0; first < size; first += READ_BOARDS) {
+            int count = this.current.read(first, this.boards);
+            for (int b = 0; b < count; b++) {
+                long board = this.boards[b];
+                boolean moved = false;
+                for (int d = 0; d < Direction.COUNT; d++) {
+                    long after = BitBoard.move(board, Direction.get(d));
+                    if (after == board) {
+                        continue;
+                    }
+                    moved = true;
+                    for (int i = 0; i < NUM_TILES; i++) {
+                        int shift = i * TILE_BITS;
+                        if (((after >>> shift) & TILE_MASK) != 0) {
+                            continue;
+                        }
+                        for (long e = TWO_EXPONENT; e <= FOUR_EXPONENT; e++) {
+                            long child = after | (e << shift);
+                            if (this.canonical) {
+                                child = Symmetry.canonical(child);
+                            }
+                            if (((int) BoardHashSet.hash(child)
+                                    & (this.partitions - ONE)) != partition
+                                    || !this.seen.add(child)) {
+                                continue;
+                            }
+                            this.next.add(child);
+                            if (this.seen.isFull()) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                if (!moved && partition == 0) {
+                    this.gameOvers++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * get the number of moves made to reach the current level
+     *
+     * @return the level
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * get the number of boards in the current level
+     *
+     * @return the number of boards
+     */
+    public long getSize() {
+        return this.current.size();
+    }
+
+    /**
+     * get the number of boards of the level before the current one that
+     * had no move left
+     *
+     * @return the number of game over boards
+     */
+    public long getGameOvers() {
+        return this.gameOvers;
+    }
+
+    /**
+     * get the number of passes the last level was worked out in
+     *
+     * @return the number of partitions
+     */
+    public int getPartitions() {
+        return this.partitions;
+    }
+
+    /**
+     * get the number of bytes of the current level spilled to disk
+     *
+     * @return the number of bytes
+     */
+    public long getSpilledBytes() {
+        return this.current.spilled * Long.BYTES;
+    }
+
+    /**
+     * Deletes the spill files
+     *
+     * @throws IOException if a spill file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.current.close();
+        this.next.close();
+    }
+
+    /**
+     * Boards of one level: the first ones in a spill file once the arena
+     * filled up, and the rest in the arena
+     */
+    private static final class Frontier implements Closeable {
+        /* Boards not spilled yet */
+        private final BoardArena arena;
+
+        /* Directory the spill file is made in */
+        private final Path spillDirectory;
+
+        /* Spill file, or null until the arena first fills up */
+        private FileChannel spill;
+
+        /* Number of boards in the spill file */
+        private long spilled;
+
+        /* Reused buffer for reading the spill file */
+        private ByteBuffer readBuffer;
+
+        /**
+         * Constructor for an empty level
+         *
+         * @param arena the memory for boards not spilled
+         * @param spillDirectory the directory to make the spill file in
+         */
+        Frontier(BoardArena arena, Path spillDirectory) {
+            this.arena = arena;
+            this.spillDirectory = spillDirectory;
+        }
+
+        /**
+         * Adds a board, spilling the arena to disk first if it is full
+         *
+         * @param board the packed board
+         * @throws IOException if the arena can't be spilled
+         */
+        void add(long board) throws IOException {
+            if (this.arena.isFull()) {
+                if (this.spill == null) {
+                    this.spill = FileChannel.open(Files.createTempFile(
+                            this.spillDirectory, "frontier", ".bin"),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                this.spill.position(this.spilled * Long.BYTES);
+                this.arena.writeTo(this.spill);
+                this.spilled += this.arena.size();
+                this.arena.clear();
+            }
+            this.arena.add(board);
+        }
+
+        /**
+         * Reads boards in the order they were added
+         *
+         * @param first the index of the first board to read
+         * @param boards filled with the boards read
+         * @return the number of boards read, fewer than fit if the level
+         *         ends
+         * @throws IOException if the spill file can't be read
+         */
+        int read(long first, long[] boards) throws IOException {
+            int count = (int) Math.max(0,
+                    Math.min(boards.length, this.size() - first));
+            int fromFile = (int) Math.max(0,
+                    Math.min(count, this.spilled - first));
+            if (fromFile > 0) {
+                if (this.readBuffer == null) {
+                    this.readBuffer = ByteBuffer.allocateDirect(
+                            boards.length * Long.BYTES)
+                            .order(ByteOrder.nativeOrder());
+                }
+                this.readBuffer.clear().limit(fromFile * Long.BYTES);
+                long position = first * Long.BYTES;
+                while (this.readBuffer.hasRemaining()) {
+                    int read = this.spill.read(this.readBuffer, position);
+                    if (read < 0) {
+                        throw new IOException("Spill file is cut short");
+                    }
+                    position += read;
+                }
+                this.readBuffer.flip();
+                this.readBuffer.asLongBuffer().get(boards, 0, fromFile);
+            }
+            for (int i = fromFile; i < count; i++) {
+                boards[i] = this.arena.get(first + i - this.spilled);
+            }
+            return count;
+        }
+
+        /**
+         * get the number of boards in the level
+         *
+         * @return the number of boards
+         */
+        long size() {
+            return this.spilled + this.arena.size();
+        }
+
+        /**
+         * Removes every board, keeping the spill file for reuse
+         *
+         * @throws IOException if the spill file can't be cut
+         */
+        void clear() throws IOException {
+            if (this.spill != null) {
+                this.spill.truncate(0);
+            }
+            this.spilled = 0;
+            this.arena.clear();
+        }
+
+        /**
+         * Deletes the spill file
+         *
+         * @throws IOException if the spill file can't be closed
+         */
+        @Override
+        public void close() throws IOException {
+            if (this.spill != null) {
+                this.spill.close();
+                this.spill = null;
+            }
+        }
+    }
+
+    /**
+     * Explores from every new game from the command line, printing each
+     * level. Large runs need -XX:MaxDirectMemorySize to be at least the
+     * memory given.
+     *
+     * @param args number of levels, memory in megabytes, spill directory
+     *             and "canonical" to count symmetric boards once, all
+     *             optional
+     * @throws IOException if a level can't be spilled
+     */
+    public static void main(String[] args) throws IOException {
+        int levels = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_LEVELS;
+        long memory = (args.length > ONE ? Long.parseLong(args[ONE])
+                : DEFAULT_MEMORY_MEGABYTES)
+                * BYTES_PER_MEGABYTE;
+        Path directory = Paths.get(args.length > TWO ? args[TWO]
+                : System.getProperty("java.io.tmpdir"));
+        boolean canonical = args.length > TWO + ONE
+                && args[TWO + ONE].equals("canonical");
+        try (FrontierExplorer explorer =
+                new FrontierExplorer(memory, directory, canonical)) {
+            explorer.start(newGames());
+            System.out.printf("level 0: %d boards%n", explorer.getSize());
+            for (int i = 0; i < levels; i++) {
+                long start = System.nanoTime();
+                long size = explorer.expand();
+                double seconds = (System.nanoTime() - start)
+                        / NANOS_PER_SECOND;
+                System.out.printf("level %d: %d boards, %d game over, "
+                        + "%d partitions, %d MB spilled, %.2f s%n",
+                        explorer.getLevel(), size, explorer.getGameOvers(),
+                        explorer.getPartitions(),
+                        explorer.getSpilledBytes() / BYTES_PER_MEGABYTE,
+                        seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Plays a game of 2048 on a Board. Every move that changes the board is
+ * followed by a new random tile, and the game ends once no move can be done.
+ * Given the same seed, the same moves always give the same game.
+ *
+ * Bugs: None known
+ */
+
+public class Game {
+    /* Defined to avoid magic number */
+    private static final int DEFAULT_SIZE = 4;
+
+    /* The board being played on */
+    private final Board board;
+
+    /* Number of moves that changed the board */
+    private int moveCount;
+
+    /**
+     * Constructor for a new game
+     *
+     * @param seed the seed for the tile values and locations
+     * @param boardSize the number of rows and columns of the board
+     */
+    public Game(long seed, int boardSize) {
+        this(new Board(new Random(seed), boardSize));
+    }
+
+    /**
+     * Constructor for a game that continues from a board
+     *
+     * @param board the board to play on
+     */
+    public Game(Board board) {
+        this.board = board;
+    }
+
+    /**
+     * Moves the tiles and adds a random tile if the move changed the board
+     *
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean play(Direction direction) {
+        if (!this.board.move(direction)) {
+            return false;
+        }
+        this.board.addRandomTile();
+        this.moveCount++;
+        return true;
+    }
+
+    /**
+     * Checks to see if the game is over
+     *
+     * @return true if no move can be done and false otherwise
+     */
+    public boolean isGameOver() {
+        return this.board.isGameOver();
+    }
+
+    /**
+     * get the board being played on
+     *
+     * @return the board
+     */
+    public Board getBoard() {
+        return this.board;
+    }
+
+    /**
+     * get the number of moves that changed the board
+     *
+     * @return the number of moves played
+     */
+    public int getMoveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * get the total score from every merge so far, kept by the board
+     *
+     * @return the score of the game
+     */
+    public long getScore() {
+        return this.board.getScore();
+    }
+
+    /**
+     * Plays a game from the command line, reading one direction per line
+     * (LEFT, RIGHT, UP or DOWN) until the game is over.
+     *
+     * @param args optional seed and board size
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0])
+                : System.nanoTime();
+        int boardSize = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_SIZE;
+        Game game = new Game(seed, boardSize);
+        Scanner input = new Scanner(System.in);
+        System.out.print(game.getBoard().boardToString());
+        while (!game.isGameOver() && input.hasNextLine()) {
+            Direction direction =
+                    Direction.fromString(input.nextLine().trim().toUpperCase());
+            if (direction == null || !game.play(direction)) {
+                System.out.println("Can't move that way");
+                continue;
+            }
+            System.out.print(game.getBoard().boardToString());
+        }
+        System.out.println("Game over after " + game.getMoveCount()
+                + " moves");
+    }
+}
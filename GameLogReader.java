@@ -0,0 +1,159 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a game log written by GameLogWriter. The whole file is mapped
+ * read-only in chunks, so any record can be read without copying the file
+ * onto the heap, and scanning billions of records only touches the page
+ * cache.
+ *
+ * Bugs: None known
+ */
+
+public class GameLogReader implements Closeable {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* The file being read */
+    private final FileChannel channel;
+
+    /* Number of rows and columns of each board */
+    private final int boardSize;
+
+    /* Number of bytes in each record */
+    private final int recordBytes;
+
+    /* Number of records in the log */
+    private final long count;
+
+    /* Mapped chunks of records, each holding CHUNK_RECORDS records */
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Constructor that opens a game log for reading
+     *
+     * @param path the file to read
+     * @throws IOException if the file can't be read or isn't a game log
+     */
+    public GameLogReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer header = this.channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, GameLogWriter.HEADER_BYTES);
+        this.boardSize = header.getInt(GameLogWriter.SIZE_OFFSET);
+        this.recordBytes = BoardCodec.packedBytes(this.boardSize) + ONE;
+        GameLogWriter.checkHeader(header, this.boardSize, this.recordBytes);
+        this.count = header.getLong(GameLogWriter.COUNT_OFFSET);
+        // maps every chunk, the last one only as far as the last record
+        long chunkBytes = (long) GameLogWriter.CHUNK_RECORDS * this.recordBytes;
+        int chunkCount = (int) ((this.count + GameLogWriter.CHUNK_RECORDS - ONE)
+                / GameLogWriter.CHUNK_RECORDS);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long start = GameLogWriter.HEADER_BYTES + i * chunkBytes;
+            long end = GameLogWriter.HEADER_BYTES
+                    + this.count * this.recordBytes;
+            this.chunks[i] = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, Math.min(chunkBytes, end - start));
+        }
+    }
+
+    /**
+     * get the number of records in the log
+     *
+     * @return the number of records
+     */
+    public long size() {
+        return this.count;
+    }
+
+    /**
+     * get the number of rows and columns of each board
+     *
+     * @return the board size
+     */
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    /**
+     * Reads the board of a record without allocating
+     *
+     * @param index the index of the record
+     * @param tiles buffer of at least boardSize * boardSize tiles, filled in
+     *              row by row
+     */
+    public void readTiles(long index, int[] tiles) {
+        BoardCodec.read(this.chunk(index), this.offset(index), this.boardSize,
+                tiles);
+    }
+
+    /**
+     * Reads the packed board of a record of a 4x4 log
+     *
+     * @param index the index of the record
+     * @return the packed board, the same as BitBoard uses
+     */
+    public long readPacked(long index) {
+        if (this.boardSize != BitBoard.GRID_SIZE) {
+            throw new IllegalStateException("Game log isn't for 4x4 boards");
+        }
+        return this.chunk(index).getLong(this.offset(index));
+    }
+
+    /**
+     * Reads the move played from the board of a record
+     *
+     * @param index the index of the record
+     * @return the move, or null if the game ended on this board
+     * @throws IllegalStateException if the record holds no valid move
+     */
+    public Direction readMove(long index) {
+        byte move = this.chunk(index).get(this.offset(index)
+                + this.recordBytes - ONE);
+        if (move == GameLogWriter.NO_MOVE) {
+            return null;
+        }
+        if (move < 0 || move >= Direction.COUNT) {
+            throw new IllegalStateException("Record " + index
+                    + " has a corrupt move: " + move);
+        }
+        return Direction.get(move);
+    }
+
+    /**
+     * Finds the chunk a record is in
+     *
+     * @param index the index of the record
+     * @return the chunk
+     */
+    private MappedByteBuffer chunk(long index) {
+        if (index < 0 || index >= this.count) {
+            throw new IndexOutOfBoundsException("No record " + index);
+        }
+        return this.chunks[(int) (index / GameLogWriter.CHUNK_RECORDS)];
+    }
+
+    /**
+     * Finds where a record starts in its chunk
+     *
+     * @param index the index of the record
+     * @return the offset of the record
+     */
+    private int offset(long index) {
+        return (int) (index % GameLogWriter.CHUNK_RECORDS) * this.recordBytes;
+    }
+
+    /**
+     * Closes the file
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
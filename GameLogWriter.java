@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends boards and the moves played from them to a game log file. The file
+ * is written through memory-mapped chunks of a FileChannel, so a record is
+ * only a few puts into the page cache.
+ * <p/>
+ * Layout of the file
+ * <p/>
+ *   header   magic, version, board size, record size (4 ints) and the
+ *            number of records (a long)
+ *   records  the board packed by BoardCodec, then 1 byte holding the
+ *            ordinal of the move played from it or NO_MOVE
+ * <p/>
+ * Every record is the same size, so record i is found without reading the
+ * ones before it. A NO_MOVE record ends a game.
+ *
+ * Bugs: The file can't be shrunk on close while it's still mapped on
+ *       platforms that lock mapped files
+ */
+
+public class GameLogWriter implements Closeable {
+    /* Marks the start of a game log file, "2048" in ASCII */
+    public static final int MAGIC = 0x32303438;
+
+    /* Version of the file layout */
+    public static final int VERSION = 1;
+
+    /* Offsets of the header fields */
+    public static final int SIZE_OFFSET = 8;
+    public static final int RECORD_BYTES_OFFSET = 12;
+    public static final int COUNT_OFFSET = 16;
+
+    /* Number of bytes in the header */
+    public static final int HEADER_BYTES = 24;
+
+    /* Move byte of a record whose board had no move played from it */
+    public static final byte NO_MOVE = -1;
+
+    /* Number of records in each mapped chunk */
+    public static final int CHUNK_RECORDS = 1 << 20;
+
+    /* The file being written */
+    private final FileChannel channel;
+
+    /* Mapped header, used to keep the record count up to date */
+    private final MappedByteBuffer header;
+
+    /* Number of rows and columns of each board */
+    private final int boardSize;
+
+    /* Number of bytes in each record */
+    private final int recordBytes;
+
+    /* Number of records written so far */
+    private long count;
+
+    /* Mapped chunk the next record goes into */
+    private MappedByteBuffer chunk;
+
+    /* Reused buffer for the tiles of the board being written */
+    private final int[] tiles;
+
+    /**
+     * Constructor that opens a game log for appending, creating it if it
+     * doesn't exist yet
+     *
+     * @param path the file to write
+     * @param boardSize the number of rows and columns of each board
+     * @throws IOException if the file can't be opened or is for another
+     *                     board size
+     */
+    public GameLogWriter(Path path, int boardSize) throws IOException {
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.boardSize = boardSize;
+        this.recordBytes = BoardCodec.packedBytes(boardSize) + 1;
+        this.tiles = new int[boardSize * boardSize];
+        this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES);
+        if (exists) {
+            // picks up after the last record of the existing file
+            checkHeader(this.header, boardSize, this.recordBytes);
+            this.count = this.header.getLong(COUNT_OFFSET);
+        }
+        else {
+            this.header.putInt(0, MAGIC);
+            this.header.putInt(Integer.BYTES, VERSION);
+            this.header.putInt(SIZE_OFFSET, boardSize);
+            this.header.putInt(RECORD_BYTES_OFFSET, this.recordBytes);
+            this.header.putLong(COUNT_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Checks that a header belongs to a game log for a board size
+     *
+     * @param header the header to check
+     * @param boardSize the expected board size
+     * @param recordBytes the expected number of bytes in each record
+     * @throws IOException if the header doesn't match
+     */
+    static void checkHeader(ByteBuffer header, int boardSize,
+                            int recordBytes) throws IOException {
+        if (header.getInt(0) != MAGIC
+                || header.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a game log");
+        }
+        if (header.getInt(SIZE_OFFSET) != boardSize
+                || header.getInt(RECORD_BYTES_OFFSET) != recordBytes) {
+            throw new IOException("Game log is for "
+                    + header.getInt(SIZE_OFFSET) + "x"
+                    + header.getInt(SIZE_OFFSET) + " boards");
+        }
+    }
+
+    /**
+     * Appends a board and the move played from it
+     *
+     * @param board the board, which must be boardSize x boardSize
+     * @param move the move played from the board, or null if the game ended
+     * @throws IOException if the next chunk can't be mapped
+     */
+    public void append(Board board, Direction move) throws IOException {
+        board.getTiles(this.tiles);
+        int offset = this.nextOffset();
+        BoardCodec.write(this.tiles, this.boardSize, this.chunk, offset);
+        this.finishRecord(offset, move);
+    }
+
+    /**
+     * Appends a packed 4x4 board and the move played from it
+     *
+     * @param board the packed board
+     * @param move the move played from the board, or null if the game ended
+     * @throws IOException if the next chunk can't be mapped
+     */
+    public void append(long board, Direction move) throws IOException {
+        if (this.boardSize != BitBoard.GRID_SIZE) {
+            throw new IllegalStateException("Game log isn't for 4x4 boards");
+        }
+        int offset = this.nextOffset();
+        this.chunk.putLong(offset, board);
+        this.finishRecord(offset, move);
+    }
+
+    /**
+     * Finds where the next record goes, mapping a new chunk if the current
+     * one is full
+     *
+     * @return the offset of the next record in the chunk
+     * @throws IOException if the next chunk can't be mapped
+     */
+    private int nextOffset() throws IOException {
+        int inChunk = (int) (this.count % CHUNK_RECORDS);
+        if (this.chunk == null || inChunk == 0) {
+            long chunkBytes = (long) CHUNK_RECORDS * this.recordBytes;
+            long start = HEADER_BYTES
+                    + (this.count / CHUNK_RECORDS) * chunkBytes;
+            // mapping past the end of the file makes the file bigger
+            this.chunk = this.channel.map(FileChannel.MapMode.READ_WRITE,
+                    start, chunkBytes);
+        }
+        return inChunk * this.recordBytes;
+    }
+
+    /**
+     * Writes the move byte of a record and counts the record
+     *
+     * @param offset the offset of the record in the chunk
+     * @param move the move played from the board, or null
+     */
+    private void finishRecord(int offset, Direction move) {
+        this.chunk.put(offset + this.recordBytes - 1,
+                move == null ? NO_MOVE : (byte) move.ordinal());
+        this.count++;
+        this.header.putLong(COUNT_OFFSET, this.count);
+    }
+
+    /**
+     * get the number of records in the log
+     *
+     * @return the number of records
+     */
+    public long size() {
+        return this.count;
+    }
+
+    /**
+     * Flushes every record to disk, shrinks the file to the records that
+     * were written and closes it
+     *
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.chunk != null) {
+            this.chunk.force();
+        }
+        this.header.force();
+        this.chunk = null;
+        this.channel.truncate(HEADER_BYTES + this.count * this.recordBytes);
+        this.channel.close();
+    }
+}
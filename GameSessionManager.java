@@ -0,0 +1,377 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hosts many 4x4 games at once, each one a session with its own id, for a
+ * server where any thread can move any session. Every session is a small
+ * immutable Session holding its id, packed board and score, kept in an
+ * open addressing table in an AtomicReferenceArray. A move reads the
+ * session, works out the moved board with a tile spawned on it and the new
+ * score, and publishes both with one compare and set, trying again if
+ * another thread changed the session first. Restarting and closing a
+ * session go through the same compare and set, so the board and score of a
+ * session always change together. There are no locks at all.
+ * <p/>
+ * Looking up a session never allocates or boxes its id. Ids are handed out
+ * by the manager and never repeat, so a new session only has to claim an
+ * empty slot with a compare and set, which publishes its id and its first
+ * board at once.
+ *
+ * Bugs: The slot of a closed session isn't reused, so capacity is the most
+ *       sessions ever created and not the most open at once
+ */
+
+public class GameSessionManager {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of tiles on a new board */
+    private static final int NUM_START_TILES = 2;
+
+    /* Id of a slot whose session was closed */
+    private static final long CLOSED = -1;
+
+    /* Held by a slot whose session was closed */
+    private static final Session CLOSED_SESSION = new Session(CLOSED, 0, 0);
+
+    /* Default session counts and moves for the load generator */
+    private static final int[] DEFAULT_SESSIONS =
+            {1000, 10000, 100000, 300000};
+    private static final long DEFAULT_MOVES = 2000000;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* Session of each slot, null if no session has used it */
+    private final AtomicReferenceArray<Session> sessions;
+
+    /* Mask used to turn a hash into a slot */
+    private final int slotMask;
+
+    /* Most sessions that can ever be created */
+    private final int capacity;
+
+    /* Id of the next session */
+    private final AtomicLong nextId = new AtomicLong(ONE);
+
+    /* Number of sessions created */
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * Constructor for a manager without sessions
+     *
+     * @param capacity the most sessions that can ever be created, the table
+     *                 being twice that rounded up to a power of two
+     */
+    public GameSessionManager(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(ONE, 2 * capacity - ONE))
+                << ONE;
+        this.slotMask = slots - ONE;
+        this.capacity = capacity;
+        this.sessions = new AtomicReferenceArray<>(slots);
+    }
+
+    /**
+     * Starts a new session with NUM_START_TILES random tiles
+     *
+     * @return the id of the session
+     */
+    public long create() {
+        if (this.created.incrementAndGet() > this.capacity) {
+            this.created.decrementAndGet();
+            throw new IllegalStateException("Too many sessions");
+        }
+        long id = this.nextId.getAndIncrement();
+        Session session = new Session(id,
+                newBoard(ThreadLocalRandom.current()), 0);
+        int slot = slot(id) & this.slotMask;
+        // claims the first slot no session has used
+        while (!this.sessions.compareAndSet(slot, null, session)) {
+            slot = (slot + ONE) & this.slotMask;
+        }
+        return id;
+    }
+
+    /**
+     * Moves the tiles of a session and spawns a tile if they moved. If
+     * another thread moves the session at the same time, one of the moves
+     * is done after the other.
+     *
+     * @param id the id of the session
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public boolean move(long id, Direction direction) {
+        int slot = this.find(id);
+        Random random = ThreadLocalRandom.current();
+        while (true) {
+            Session session = this.get(slot, id);
+            long next = BitBoard.move(session.board, direction);
+            if (next == session.board) {
+                return false;
+            }
+            Session moved = new Session(id,
+                    BitBoard.addRandomTile(next, random), session.score
+                            + BitBoard.moveScore(session.board, direction));
+            if (this.sessions.compareAndSet(slot, session, moved)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts a session back to a new board and a score of 0
+     *
+     * @param id the id of the session
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public void restart(long id) {
+        int slot = this.find(id);
+        Session fresh = new Session(id,
+                newBoard(ThreadLocalRandom.current()), 0);
+        while (!this.sessions.compareAndSet(slot, this.get(slot, id),
+                fresh)) {
+            // another thread changed the session first, so tries again
+        }
+    }
+
+    /**
+     * Puts a session back to a new board and a score of 0 if its game is
+     * over. If many threads find the same game over, only one restarts it.
+     *
+     * @param id the id of the session
+     * @return true if this call restarted the session
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public boolean restartIfGameOver(long id) {
+        int slot = this.find(id);
+        Session session = this.get(slot, id);
+        return !BitBoard.hasAnyMove(session.board)
+                && this.sessions.compareAndSet(slot, session, new Session(id,
+                        newBoard(ThreadLocalRandom.current()), 0));
+    }
+
+    /**
+     * Ends a session, after which its id can't be used
+     *
+     * @param id the id of the session
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public void close(long id) {
+        int slot = this.find(id);
+        while (!this.sessions.compareAndSet(slot, this.get(slot, id),
+                CLOSED_SESSION)) {
+            // another thread changed the session first, so tries again
+        }
+    }
+
+    /**
+     * get the packed board of a session
+     *
+     * @param id the id of the session
+     * @return the packed board
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public long getBoard(long id) {
+        int slot = this.find(id);
+        return this.get(slot, id).board;
+    }
+
+    /**
+     * get the score of a session
+     *
+     * @param id the id of the session
+     * @return the score from every merge so far
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public long getScore(long id) {
+        int slot = this.find(id);
+        return this.get(slot, id).score;
+    }
+
+    /**
+     * Checks to see if the game of a session is over
+     *
+     * @param id the id of the session
+     * @return true if no move can be done and false otherwise
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public boolean isGameOver(long id) {
+        return !BitBoard.hasAnyMove(this.getBoard(id));
+    }
+
+    /**
+     * Finds the slot of a session
+     *
+     * @param id the id of the session
+     * @return the slot
+     * @throws IllegalArgumentException if there is no such session
+     */
+    private int find(long id) {
+        if (id < ONE) {
+            throw new IllegalArgumentException("No session: " + id);
+        }
+        int slot = slot(id) & this.slotMask;
+        while (true) {
+            Session session = this.sessions.get(slot);
+            if (session == null) {
+                throw new IllegalArgumentException("No session: " + id);
+            }
+            if (session.id == id) {
+                return slot;
+            }
+            slot = (slot + ONE) & this.slotMask;
+        }
+    }
+
+    /**
+     * get the session in a slot found by find, checking it wasn't closed
+     * since
+     *
+     * @param slot the slot
+     * @param id the id of the session
+     * @return the session
+     * @throws IllegalArgumentException if the session was closed
+     */
+    private Session get(int slot, long id) {
+        Session session = this.sessions.get(slot);
+        if (session.id != id) {
+            throw new IllegalArgumentException("No session: " + id);
+        }
+        return session;
+    }
+
+    /**
+     * Spreads the bits of an id so that ids next to each other land in
+     * different parts of the table
+     *
+     * @param id the id of the session
+     * @return the hash of the id
+     */
+    private static int slot(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> Integer.SIZE));
+    }
+
+    /**
+     * Makes a board with NUM_START_TILES random tiles
+     *
+     * @param random the random generator for tile values and locations
+     * @return the packed board
+     */
+    private static long newBoard(Random random) {
+        long board = 0;
+        for (int i = 0; i < NUM_START_TILES; i++) {
+            board = BitBoard.addRandomTile(board, random);
+        }
+        return board;
+    }
+
+    /**
+     * Moves random sessions from every thread of a pool and records how
+     * long each move took, restarting sessions whose game is over
+     *
+     * @param sessions the ids of the sessions to move
+     * @param moveCount the number of moves to do across every thread
+     * @param pool the pool to move on
+     * @param metrics the counters to record each move into
+     */
+    public void load(long[] sessions, long moveCount, ForkJoinPool pool,
+            BoardMetrics metrics) {
+        int workers = pool.getParallelism();
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers];
+        for (int w = 0; w < workers; w++) {
+            // the first workers take the moves left over
+            long moves = moveCount / workers
+                    + (w < moveCount % workers ? ONE : 0);
+            tasks[w] = pool.submit(() -> {
+                Random random = ThreadLocalRandom.current();
+                for (long m = 0; m < moves; m++) {
+                    long id = sessions[random.nextInt(sessions.length)];
+                    Direction direction =
+                            Direction.get(random.nextInt(Direction.COUNT));
+                    long start = System.nanoTime();
+                    boolean moved = this.move(id, direction);
+                    metrics.recordMove(direction, moved, 0,
+                            System.nanoTime() - start);
+                    if (!moved) {
+                        this.restartIfGameOver(id);
+                    }
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Runs the load generator from the command line, printing the move
+     * latency for a growing number of sessions
+     *
+     * @param args number of moves for each session count, then the session
+     *             counts, all optional
+     */
+    public static void main(String[] args) {
+        long moveCount = args.length > 0 ? Long.parseLong(args[0])
+                : DEFAULT_MOVES;
+        int[] sessionCounts = DEFAULT_SESSIONS;
+        if (args.length > ONE) {
+            sessionCounts = new int[args.length - ONE];
+            for (int i = ONE; i < args.length; i++) {
+                sessionCounts[i - ONE] = Integer.parseInt(args[i]);
+            }
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int sessionCount : sessionCounts) {
+            GameSessionManager manager = new GameSessionManager(sessionCount);
+            long[] sessions = new long[sessionCount];
+            for (int i = 0; i < sessionCount; i++) {
+                sessions[i] = manager.create();
+            }
+            BoardMetrics metrics = new BoardMetrics();
+            long start = System.nanoTime();
+            manager.load(sessions, moveCount, pool, metrics);
+            double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+            BoardMetrics.Snapshot snapshot = metrics.snapshot();
+            System.out.printf("sessions %d: %.0f moves/s, p50 %d ns, "
+                    + "p99 %d ns, p99.9 %d ns%n", sessionCount,
+                    snapshot.getTotalMoves() / seconds,
+                    snapshot.getLatencyPercentile(50),
+                    snapshot.getLatencyPercentile(99),
+                    snapshot.getLatencyPercentile(99.9));
+        }
+    }
+
+    /**
+     * The board and score of a session, replaced as a whole on every change
+     */
+    private static final class Session {
+        /* Id of the session, or CLOSED */
+        private final long id;
+
+        /* Packed board */
+        private final long board;
+
+        /* Score from every merge so far */
+        private final long score;
+
+        /**
+         * Constructor for a session
+         *
+         * @param id the id of the session
+         * @param board the packed board
+         * @param score the score from every merge so far
+         */
+        Session(long id, long board, long score) {
+            this.id = id;
+            this.board = board;
+            this.score = score;
+        }
+    }
+}
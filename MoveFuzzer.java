@@ -0,0 +1,675 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Differential fuzzer for the move kernels. Random 4x4 grids are made in
+ * blocks, each block is moved in every direction by ReferenceBoard, and
+ * then by every other engine, and every board, canMove answer and move
+ * answer has to match the reference exactly. Board.rotate is checked the
+ * same way against ReferenceBoard.rotate. Blocks are fuzzed on every thread
+ * of a pool, and the time each engine takes is added up so correctness and
+ * speed come out of the same run.
+ * <p/>
+ * When a grid diverges, it is shrunk by removing tiles and lowering them
+ * for as long as the engine still diverges, so the grid reported is small
+ * enough to read.
+ *
+ * Bugs: Only tiles up to 16384 are made, since the packed engines can't
+ *       merge two 32768 tiles (see BitBoard)
+ */
+
+public class MoveFuzzer {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int FOUR = 4;
+    private static final int TILE_BITS = 4;
+    private static final int TILE_MASK = 0xF;
+    private static final int NUM_TILES = 16;
+
+    /* Largest exponent made, so that every merge still fits a packed
+       board */
+    private static final int MAX_EXPONENT = 14;
+
+    /* Number of results for each board: a board for each direction, or for
+       each rotation */
+    static final int RESULTS = Direction.COUNT;
+
+    /* Rotations checked, one for each result */
+    static final int[] ROTATIONS = {1, 2, 3, -1};
+
+    /* Bits of the flags of a board: bit d set if the move with ordinal d
+       changed the board, and bit CAN_MOVE_SHIFT + d if canMove said it
+       could */
+    static final int CAN_MOVE_SHIFT = Direction.COUNT;
+
+    /* Number of grids in each block */
+    public static final int BLOCK_BOARDS = 4096;
+
+    /* Default number of grids to check */
+    private static final long DEFAULT_POSITIONS = 4000000;
+
+    /* Block of the first divergence while none was found */
+    private static final long NO_DIVERGENCE = Long.MAX_VALUE;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * A move kernel being checked. Each worker makes its own engines, so an
+     * engine can keep buffers without locking.
+     */
+    abstract static class Engine {
+        /* Name used in the report */
+        private final String name;
+
+        /* Whether run rotates the boards instead of moving them */
+        private final boolean rotates;
+
+        /**
+         * Constructor for an engine
+         *
+         * @param name the name used in the report
+         * @param rotates true if run rotates the boards by ROTATIONS
+         */
+        Engine(String name, boolean rotates) {
+            this.name = name;
+            this.rotates = rotates;
+        }
+
+        /**
+         * Moves or rotates a block of boards
+         *
+         * @param boards the packed boards
+         * @param count the number of boards
+         * @param out filled with RESULTS packed boards for each board, by
+         *            Direction ordinal or by ROTATIONS
+         * @param flags filled with the move and canMove bits of each
+         *              board, 0 for an engine that rotates
+         */
+        abstract void run(long[] boards, int count, long[] out, int[] flags);
+
+        /**
+         * get the name used in the report
+         *
+         * @return the name
+         */
+        String getName() {
+            return this.name;
+        }
+
+        /**
+         * get whether the engine rotates the boards instead of moving them
+         *
+         * @return true if it rotates
+         */
+        boolean rotates() {
+            return this.rotates;
+        }
+    }
+
+    /* Seed of the first worker's grids */
+    private final long seed;
+
+    /* Names of the engines, in the order newEngines makes them */
+    private final String[] names;
+
+    /* Number of grids checked */
+    private final LongAdder positions = new LongAdder();
+
+    /* Time each engine took, summed over every worker, with the reference
+       last */
+    private final LongAdder[] nanos;
+
+    /* Index of the next block to check */
+    private final AtomicLong nextBlock = new AtomicLong();
+
+    /* Block of the first divergence found, or NO_DIVERGENCE */
+    private final AtomicLong firstBlock = new AtomicLong(NO_DIVERGENCE);
+
+    /* Engine and grid of the first divergence */
+    private int divergenceEngine;
+    private long divergenceBoard;
+
+    /* Time the last run took */
+    private long elapsedNanos;
+
+    /**
+     * Constructor for a fuzzer
+     *
+     * @param seed the seed of the first block's grids
+     */
+    public MoveFuzzer(long seed) {
+        this.seed = seed;
+        Engine[] engines = newEngines();
+        this.names = new String[engines.length];
+        this.nanos = new LongAdder[engines.length + ONE];
+        for (int i = 0; i < engines.length; i++) {
+            this.names[i] = engines[i].getName();
+        }
+        for (int i = 0; i < this.nanos.length; i++) {
+            this.nanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Makes one of every engine checked against the reference
+     *
+     * @return the engines
+     */
+    static Engine[] newEngines() {
+        return new Engine[] {
+            new Engine("Board", false) {
+                private final Board board =
+                        new Board(new Random(0), new int[FOUR][FOUR]);
+                private final int[] tiles = new int[NUM_TILES];
+
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        int bits = 0;
+                        for (int d = 0; d < Direction.COUNT; d++) {
+                            Direction direction = Direction.get(d);
+                            unpackTiles(boards[i], this.tiles);
+                            this.board.setTiles(this.tiles);
+                            if (this.board.canMove(direction)) {
+                                bits |= ONE << (CAN_MOVE_SHIFT + d);
+                            }
+                            if (this.board.move(direction)) {
+                                bits |= ONE << d;
+                            }
+                            this.board.getTiles(this.tiles);
+                            out[i * RESULTS + d] = packTiles(this.tiles);
+                        }
+                        flags[i] = bits;
+                    }
+                }
+            },
+            new Engine("Board.moveAll", false) {
+                private final Board board =
+                        new Board(new Random(0), new int[FOUR][FOUR]);
+                private final int[] tiles = new int[NUM_TILES];
+                private final int[] successors =
+                        new int[Direction.COUNT * NUM_TILES];
+                private final int[] scores = new int[Direction.COUNT];
+
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        unpackTiles(boards[i], this.tiles);
+                        this.board.setTiles(this.tiles);
+                        int mask = this.board.moveAll(this.successors,
+                                this.scores);
+                        for (int d = 0; d < Direction.COUNT; d++) {
+                            System.arraycopy(this.successors, d * NUM_TILES,
+                                    this.tiles, 0, NUM_TILES);
+                            out[i * RESULTS + d] = packTiles(this.tiles);
+                        }
+                        flags[i] = mask | (mask << CAN_MOVE_SHIFT);
+                    }
+                }
+            },
+            new Engine("BitBoard", false) {
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        int bits = 0;
+                        for (int d = 0; d < Direction.COUNT; d++) {
+                            long moved =
+                                    BitBoard.move(boards[i], Direction.get(d));
+                            if (moved != boards[i]) {
+                                bits |= (ONE << d)
+                                        | (ONE << (CAN_MOVE_SHIFT + d));
+                            }
+                            out[i * RESULTS + d] = moved;
+                        }
+                        flags[i] = bits;
+                    }
+                }
+            },
+            new Engine("BitBoard.moveAll", false) {
+                private final long[] moved = new long[Direction.COUNT];
+                private final int[] scores = new int[Direction.COUNT];
+
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        int mask = BitBoard.moveAll(boards[i], this.moved,
+                                this.scores);
+                        System.arraycopy(this.moved, 0, out, i * RESULTS,
+                                Direction.COUNT);
+                        flags[i] = mask | (mask << CAN_MOVE_SHIFT);
+                    }
+                }
+            },
+            new Engine("BoardBatch", false) {
+                private final BoardBatch batch = new BoardBatch(BLOCK_BOARDS);
+                private final long[] canMove =
+                        new long[BoardBatch.maskWords(BLOCK_BOARDS)];
+                private final long[] changed =
+                        new long[BoardBatch.maskWords(BLOCK_BOARDS)];
+
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    Arrays.fill(flags, 0, count, 0);
+                    for (int d = 0; d < Direction.COUNT; d++) {
+                        Direction direction = Direction.get(d);
+                        this.batch.clear();
+                        for (int i = 0; i < count; i++) {
+                            this.batch.add(boards[i]);
+                        }
+                        this.batch.canMove(direction, this.canMove);
+                        this.batch.move(direction, this.changed);
+                        for (int i = 0; i < count; i++) {
+                            out[i * RESULTS + d] = this.batch.get(i);
+                            flags[i] |= (bit(this.changed, i) << d)
+                                    | (bit(this.canMove, i)
+                                            << (CAN_MOVE_SHIFT + d));
+                        }
+                    }
+                }
+            },
+            new Engine("BoardState", false) {
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        BoardState state = BoardState.of(boards[i]);
+                        int bits = 0;
+                        for (int d = 0; d < Direction.COUNT; d++) {
+                            Direction direction = Direction.get(d);
+                            if (state.canMove(direction)) {
+                                bits |= ONE << (CAN_MOVE_SHIFT + d);
+                            }
+                            BoardState moved = state.withMove(direction);
+                            if (moved != state) {
+                                bits |= ONE << d;
+                            }
+                            out[i * RESULTS + d] = moved.getBoard();
+                        }
+                        flags[i] = bits;
+                    }
+                }
+            },
+            new Engine("Board.rotate", true) {
+                private final Board board =
+                        new Board(new Random(0), new int[FOUR][FOUR]);
+                private final int[] tiles = new int[NUM_TILES];
+
+                @Override
+                void run(long[] boards, int count, long[] out, int[] flags) {
+                    for (int i = 0; i < count; i++) {
+                        for (int k = 0; k < ROTATIONS.length; k++) {
+                            unpackTiles(boards[i], this.tiles);
+                            this.board.setTiles(this.tiles);
+                            this.board.rotate(ROTATIONS[k]);
+                            this.board.getTiles(this.tiles);
+                            out[i * RESULTS + k] = packTiles(this.tiles);
+                        }
+                        flags[i] = 0;
+                    }
+                }
+            },
+        };
+    }
+
+    /**
+     * Moves and rotates a block of boards with ReferenceBoard
+     *
+     * @param boards the packed boards
+     * @param count the number of boards
+     * @param moves filled with the board after each move
+     * @param flags filled with the move and canMove bits
+     * @param rotations filled with the board after each rotation
+     */
+    static void reference(long[] boards, int count, long[] moves,
+            int[] flags, long[] rotations) {
+        for (int i = 0; i < count; i++) {
+            int bits = 0;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                Direction direction = Direction.get(d);
+                int[][] grid = BitBoard.unpack(boards[i]);
+                if (ReferenceBoard.canMove(grid, direction)) {
+                    bits |= ONE << (CAN_MOVE_SHIFT + d);
+                }
+                if (ReferenceBoard.move(grid, direction)) {
+                    bits |= ONE << d;
+                }
+                moves[i * RESULTS + d] = BitBoard.pack(grid);
+            }
+            flags[i] = bits;
+            for (int k = 0; k < ROTATIONS.length; k++) {
+                int[][] grid = BitBoard.unpack(boards[i]);
+                ReferenceBoard.rotate(grid, ROTATIONS[k]);
+                rotations[i * RESULTS + k] = BitBoard.pack(grid);
+            }
+        }
+    }
+
+    /**
+     * Fuzzes blocks on a pool, one worker per thread of the pool, until
+     * enough grids are checked or one diverges, and waits for them
+     *
+     * @param positionCount the number of grids to check
+     * @param pool the pool to fuzz on
+     * @return true if no grid diverged
+     */
+    public boolean run(long positionCount, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        long blocks = (positionCount + BLOCK_BOARDS - ONE) / BLOCK_BOARDS;
+        ForkJoinTask<?>[] workers =
+                new ForkJoinTask<?>[pool.getParallelism()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = pool.submit(() -> this.work(blocks));
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+        return this.firstBlock.get() == NO_DIVERGENCE;
+    }
+
+    /**
+     * Keeps taking the next block and checking it until there are no more
+     * or a block before it diverged
+     *
+     * @param blocks the number of blocks to check
+     */
+    private void work(long blocks) {
+        Engine[] engines = newEngines();
+        long[] boards = new long[BLOCK_BOARDS];
+        long[] moves = new long[BLOCK_BOARDS * RESULTS];
+        long[] rotations = new long[BLOCK_BOARDS * RESULTS];
+        int[] flags = new int[BLOCK_BOARDS];
+        long[] out = new long[BLOCK_BOARDS * RESULTS];
+        int[] outFlags = new int[BLOCK_BOARDS];
+        long block;
+        while ((block = this.nextBlock.getAndIncrement()) < blocks
+                && block < this.firstBlock.get()) {
+            Random random = new Random(this.seed + block);
+            for (int i = 0; i < BLOCK_BOARDS; i++) {
+                boards[i] = randomBoard(random);
+            }
+            long time = System.nanoTime();
+            reference(boards, BLOCK_BOARDS, moves, flags, rotations);
+            long now = System.nanoTime();
+            this.nanos[engines.length].add(now - time);
+            for (int e = 0; e < engines.length; e++) {
+                time = now;
+                engines[e].run(boards, BLOCK_BOARDS, out, outFlags);
+                now = System.nanoTime();
+                this.nanos[e].add(now - time);
+                long[] expected = engines[e].rotates() ? rotations : moves;
+                for (int i = 0; i < BLOCK_BOARDS; i++) {
+                    if (diverges(engines[e], i, expected, flags, out,
+                            outFlags)) {
+                        this.diverge(block, e, boards[i]);
+                        break;
+                    }
+                }
+            }
+            this.positions.add(BLOCK_BOARDS);
+        }
+    }
+
+    /**
+     * Checks to see if an engine's results for a board differ from the
+     * reference
+     *
+     * @param engine the engine
+     * @param i the index of the board in the block
+     * @param expected the reference boards
+     * @param flags the reference move and canMove bits
+     * @param out the engine's boards
+     * @param outFlags the engine's move and canMove bits
+     * @return true if anything differs
+     */
+    private static boolean diverges(Engine engine, int i, long[] expected,
+            int[] flags, long[] out, int[] outFlags) {
+        if (!engine.rotates() && flags[i] != outFlags[i]) {
+            return true;
+        }
+        for (int k = 0; k < RESULTS; k++) {
+            if (expected[i * RESULTS + k] != out[i * RESULTS + k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records a divergence, keeping the one in the earliest block
+     *
+     * @param block the block that diverged
+     * @param engine the index of the engine that diverged
+     * @param board the grid that diverged
+     */
+    private void diverge(long block, int engine, long board) {
+        synchronized (this.firstBlock) {
+            if (block < this.firstBlock.get()) {
+                this.firstBlock.set(block);
+                this.divergenceEngine = engine;
+                this.divergenceBoard = board;
+            }
+        }
+    }
+
+    /**
+     * Shrinks a grid an engine diverges on, emptying tiles and lowering
+     * them one at a time for as long as the engine still diverges
+     *
+     * @param engine the engine
+     * @param board the packed grid it diverges on
+     * @return the smallest grid found that still diverges
+     */
+    static long minimize(Engine engine, long board) {
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (int i = 0; i < NUM_TILES; i++) {
+                int shift = i * TILE_BITS;
+                long exponent = (board >>> shift) & TILE_MASK;
+                if (exponent == 0) {
+                    continue;
+                }
+                long cleared = board & ~((long) TILE_MASK << shift);
+                // tries emptying the tile first, then halving it
+                if (divergesAlone(engine, cleared)) {
+                    board = cleared;
+                    shrunk = true;
+                }
+                else if (exponent > ONE && divergesAlone(engine,
+                        cleared | ((exponent - ONE) << shift))) {
+                    board = cleared | ((exponent - ONE) << shift);
+                    shrunk = true;
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Checks a single grid of an engine against the reference
+     *
+     * @param engine the engine
+     * @param board the packed grid
+     * @return true if the engine diverges on it
+     */
+    private static boolean divergesAlone(Engine engine, long board) {
+        long[] boards = {board};
+        long[] moves = new long[RESULTS];
+        long[] rotations = new long[RESULTS];
+        int[] flags = new int[ONE];
+        long[] out = new long[RESULTS];
+        int[] outFlags = new int[ONE];
+        reference(boards, ONE, moves, flags, rotations);
+        engine.run(boards, ONE, out, outFlags);
+        return diverges(engine, 0, engine.rotates() ? rotations : moves,
+                flags, out, outFlags);
+    }
+
+    /**
+     * Makes a random board, low tiles being picked more often so that
+     * pairs show up, and about a quarter of the tiles empty
+     *
+     * @param random picks the tiles
+     * @return the packed board
+     */
+    static long randomBoard(Random random) {
+        long board = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            long exponent = random.nextInt(FOUR) == 0
+                    ? random.nextInt(MAX_EXPONENT + ONE)
+                    : random.nextInt(FOUR);
+            board |= exponent << (i * TILE_BITS);
+        }
+        return board;
+    }
+
+    /**
+     * Unpacks a board into a flat row by row buffer of tiles
+     *
+     * @param board the packed board
+     * @param tiles filled with the tiles
+     */
+    private static void unpackTiles(long board, int[] tiles) {
+        for (int i = 0; i < NUM_TILES; i++) {
+            int exponent = (int) (board >>> (i * TILE_BITS)) & TILE_MASK;
+            tiles[i] = exponent == 0 ? 0 : ONE << exponent;
+        }
+    }
+
+    /**
+     * Packs a flat row by row buffer of tiles
+     *
+     * @param tiles the tiles, each 0 or a power of two up to 32768
+     * @return the packed board
+     */
+    private static long packTiles(int[] tiles) {
+        long board = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            long exponent = tiles[i] == 0 ? 0
+                    : Integer.numberOfTrailingZeros(tiles[i]);
+            board |= exponent << (i * TILE_BITS);
+        }
+        return board;
+    }
+
+    /**
+     * get one bit of a batch bitmask
+     *
+     * @param mask the bitmask
+     * @param i the index of the board
+     * @return 1 if the bit is set, otherwise 0
+     */
+    private static int bit(long[] mask, int i) {
+        return (int) (mask[i / Long.SIZE] >>> (i % Long.SIZE)) & ONE;
+    }
+
+    /**
+     * get the number of grids checked
+     *
+     * @return the number of grids
+     */
+    public long getPositions() {
+        return this.positions.sum();
+    }
+
+    /**
+     * get the number of grids an engine checked each second, on one thread
+     *
+     * @param engine the index of the engine, in the order of the report,
+     *               or the number of engines for the reference
+     * @return the grids per second, or 0 if nothing was run
+     */
+    public double getPositionsPerSecond(int engine) {
+        long time = this.nanos[engine].sum();
+        return time == 0 ? 0 : this.getPositions() * NANOS_PER_SECOND / time;
+    }
+
+    /**
+     * Return the results as a String, with the first divergence shrunk
+     *
+     * @return the grids checked, the speed of each engine and the first
+     *         divergence
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("positions %d, %.0f positions/s%n",
+                this.getPositions(), this.elapsedNanos == 0 ? 0
+                        : this.getPositions() * NANOS_PER_SECOND
+                                / this.elapsedNanos));
+        for (int e = 0; e <= this.names.length; e++) {
+            report.append(String.format("  %-18s %14.0f positions/s "
+                    + "per thread%n", e == this.names.length ? "Reference"
+                    : this.names[e], this.getPositionsPerSecond(e)));
+        }
+        long block;
+        int engine;
+        long board;
+        synchronized (this.firstBlock) {
+            block = this.firstBlock.get();
+            engine = this.divergenceEngine;
+            board = this.divergenceBoard;
+        }
+        if (block == NO_DIVERGENCE) {
+            report.append(String.format("no divergences%n"));
+            return report.toString();
+        }
+        Engine diverged = newEngines()[engine];
+        long minimized = minimize(diverged, board);
+        report.append(String.format("%s diverges in block %d%n",
+                diverged.getName(), block));
+        report.append(String.format("input:     %s%n",
+                Arrays.deepToString(BitBoard.unpack(board))));
+        report.append(String.format("minimized: %s%n",
+                Arrays.deepToString(BitBoard.unpack(minimized))));
+        long[] boards = {minimized};
+        long[] moves = new long[RESULTS];
+        long[] rotations = new long[RESULTS];
+        int[] flags = new int[ONE];
+        long[] out = new long[RESULTS];
+        int[] outFlags = new int[ONE];
+        reference(boards, ONE, moves, flags, rotations);
+        diverged.run(boards, ONE, out, outFlags);
+        long[] expected = diverged.rotates() ? rotations : moves;
+        for (int k = 0; k < RESULTS; k++) {
+            String name = diverged.rotates() ? "rotate " + ROTATIONS[k]
+                    : "move " + Direction.get(k);
+            boolean flagsDiffer = !diverged.rotates()
+                    && ((flags[0] ^ outFlags[0])
+                            & ((ONE << k) | (ONE << (CAN_MOVE_SHIFT + k))))
+                            != 0;
+            if (expected[k] != out[k] || flagsDiffer) {
+                report.append(String.format("%s: expected %s moved %b "
+                        + "canMove %b, actual %s moved %b canMove %b%n", name,
+                        Arrays.deepToString(BitBoard.unpack(expected[k])),
+                        (flags[0] >>> k & ONE) != 0,
+                        (flags[0] >>> (CAN_MOVE_SHIFT + k) & ONE) != 0,
+                        Arrays.deepToString(BitBoard.unpack(out[k])),
+                        (outFlags[0] >>> k & ONE) != 0,
+                        (outFlags[0] >>> (CAN_MOVE_SHIFT + k) & ONE) != 0));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Fuzzes from the command line and exits with 1 if anything diverged
+     *
+     * @param args number of grids and seed, both optional
+     */
+    public static void main(String[] args) {
+        long positionCount = args.length > 0 ? Long.parseLong(args[0])
+                : DEFAULT_POSITIONS;
+        long seed = args.length > ONE ? Long.parseLong(args[ONE]) : 0;
+        MoveFuzzer fuzzer = new MoveFuzzer(seed);
+        boolean passed = fuzzer.run(positionCount, ForkJoinPool.commonPool());
+        System.out.print(fuzzer.report());
+        if (!passed) {
+            System.exit(ONE);
+        }
+    }
+}
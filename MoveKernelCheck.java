@@ -0,0 +1,214 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Cross-checks the size-agnostic move kernel of Board. On 4x4 boards every
+ * possible line of tiles (each tile being 0 or 2 up to 32768) is put in every
+ * row and column and moved in every direction, and the result has to match
+ * ReferenceBoard exactly. Boards from 3x3 to 8x8 are checked by making sure
+ * each direction is the same as rotating, moving left and rotating back.
+ *
+ * Bugs: None known
+ */
+
+public class MoveKernelCheck {
+    /* Defined to avoid magic number */
+    private static final int FOUR = 4;
+
+    /* Number of different 4x4 lines, one for each 16 bit value */
+    private static final int LINE_COUNT = 65536;
+
+    /* Largest exponent used when filling in random tiles */
+    private static final int MAX_EXPONENT = 15;
+
+    /* Smallest and largest grid sizes checked */
+    private static final int MIN_SIZE = 3;
+    private static final int MAX_SIZE = 8;
+
+    /* Number of random boards checked for each grid size */
+    private static final int BOARDS_PER_SIZE = 20000;
+
+    /* Seed for the tiles that fill in the rest of the board */
+    private static final long SEED = 2048;
+
+    /* Rotations needed before a left move to act like each direction,
+       in Direction order, and the rotations needed to undo them */
+    private static final int[] ROTATE_BEFORE = {0, 2, 3, 1};
+    private static final int[] ROTATE_AFTER = {0, 2, 1, 3};
+
+    /**
+     * Runs every check and exits with 1 on the first mismatch
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        long checked = 0;
+        checked += checkEveryLine(random);
+        checked += checkRotate(random);
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+            checked += checkSize(random, size);
+        }
+        System.out.println("OK, " + checked + " boards checked");
+    }
+
+    /**
+     * Puts every possible line in every row and column of a 4x4 board and
+     * checks each move against ReferenceBoard
+     *
+     * @param random fills in the rest of the board
+     * @return the number of boards checked
+     */
+    private static long checkEveryLine(Random random) {
+        long checked = 0;
+        for (int line = 0; line < LINE_COUNT; line++) {
+            for (int placement = 0; placement < FOUR * 2; placement++) {
+                int[][] grid = randomGrid(random, FOUR);
+                for (int k = 0; k < FOUR; k++) {
+                    int exponent = (line >>> (k * FOUR)) & 0xF;
+                    int value = exponent == 0 ? 0 : 1 << exponent;
+                    // the first four placements are rows, the rest columns
+                    if (placement < FOUR) {
+                        grid[placement][k] = value;
+                    }
+                    else {
+                        grid[k][placement - FOUR] = value;
+                    }
+                }
+                for (int d = 0; d < Direction.COUNT; d++) {
+                    checkAgainstReference(grid, Direction.get(d));
+                    checked++;
+                }
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * Checks a single move of Board against ReferenceBoard
+     *
+     * @param grid the 4x4 grid to move, it is not changed
+     * @param direction the tiles will move
+     */
+    private static void checkAgainstReference(int[][] grid,
+                                              Direction direction) {
+        Board board = new Board(grid);
+        int[][] expected = copy(grid);
+        boolean expectedCanMove = ReferenceBoard.canMove(expected, direction);
+        boolean expectedMoved = ReferenceBoard.move(expected, direction);
+        if (board.canMove(direction) != expectedCanMove
+                || board.move(direction) != expectedMoved
+                || !Arrays.deepEquals(board.getGrid(), expected)) {
+            fail("move " + direction, grid, board.getGrid(), expected);
+        }
+    }
+
+    /**
+     * Checks every rotation of random 4x4 boards against ReferenceBoard
+     *
+     * @param random makes the boards
+     * @return the number of boards checked
+     */
+    private static long checkRotate(Random random) {
+        long checked = 0;
+        for (int i = 0; i < BOARDS_PER_SIZE; i++) {
+            int[][] grid = randomGrid(random, FOUR);
+            for (int number = -1; number <= FOUR * 2; number++) {
+                Board board = new Board(grid);
+                int[][] expected = copy(grid);
+                board.rotate(number);
+                ReferenceBoard.rotate(expected, number);
+                if (!Arrays.deepEquals(board.getGrid(), expected)) {
+                    fail("rotate " + number, grid, board.getGrid(), expected);
+                }
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * Checks that every direction on a board of any size is the same as
+     * rotating, moving left and rotating back
+     *
+     * @param random makes the boards
+     * @param size the number of rows and columns
+     * @return the number of boards checked
+     */
+    private static long checkSize(Random random, int size) {
+        long checked = 0;
+        for (int i = 0; i < BOARDS_PER_SIZE; i++) {
+            int[][] grid = randomGrid(random, size);
+            for (int d = 0; d < Direction.COUNT; d++) {
+                Direction direction = Direction.get(d);
+                Board board = new Board(grid);
+                boolean canMove = board.canMove(direction);
+                boolean moved = board.move(direction);
+                Board rotated = new Board(grid);
+                rotated.rotate(ROTATE_BEFORE[d]);
+                boolean rotatedMoved = rotated.move(Direction.LEFT);
+                rotated.rotate(ROTATE_AFTER[d]);
+                if (canMove != moved || moved != rotatedMoved
+                        || !Arrays.deepEquals(board.getGrid(),
+                                rotated.getGrid())) {
+                    fail(size + "x" + size + " move " + direction, grid,
+                            board.getGrid(), rotated.getGrid());
+                }
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * Makes a grid of random tiles, about a third of them empty
+     *
+     * @param random picks the tiles
+     * @param size the number of rows and columns
+     * @return the new grid
+     */
+    private static int[][] randomGrid(Random random, int size) {
+        int[][] grid = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                // low exponents are picked more often so pairs show up
+                int exponent = random.nextInt(FOUR) == 0
+                        ? random.nextInt(MAX_EXPONENT + 1)
+                        : random.nextInt(FOUR);
+                grid[r][c] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Makes a deep copy of a grid
+     *
+     * @param grid the grid to copy
+     * @return the copy
+     */
+    private static int[][] copy(int[][] grid) {
+        int[][] gridCopy = new int[grid.length][];
+        for (int r = 0; r < grid.length; r++) {
+            gridCopy[r] = grid[r].clone();
+        }
+        return gridCopy;
+    }
+
+    /**
+     * Prints a mismatch and exits
+     *
+     * @param check the name of the check that failed
+     * @param input the grid before the check
+     * @param actual the grid the kernel gave
+     * @param expected the grid that was expected
+     */
+    private static void fail(String check, int[][] input, int[][] actual,
+                             int[][] expected) {
+        System.out.println("Mismatch in " + check);
+        System.out.println("input:    " + Arrays.deepToString(input));
+        System.out.println("actual:   " + Arrays.deepToString(actual));
+        System.out.println("expected: " + Arrays.deepToString(expected));
+        System.exit(1);
+    }
+}
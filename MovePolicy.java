@@ -0,0 +1,49 @@
+import java.util.Random;
+
+/**
+ * Picks the next move of a game. Policies are shared by every thread of a
+ * Simulator, so any state they keep has to be safe to use from many threads
+ * at once; the Random passed in belongs to a single game.
+ *
+ * Bugs: None known
+ */
+
+public interface MovePolicy {
+    /* Picks a random direction that can move, each one as likely */
+    MovePolicy RANDOM = (board, random) -> {
+        // bit d is set if the direction with ordinal d can move
+        int valid = 0;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            if (board.canMove(Direction.get(d))) {
+                valid |= 1 << d;
+            }
+        }
+        if (valid == 0) {
+            return null;
+        }
+        // drops the lowest directions until the picked one is lowest
+        for (int i = random.nextInt(Integer.bitCount(valid)); i > 0; i--) {
+            valid &= valid - 1;
+        }
+        return Direction.get(Integer.numberOfTrailingZeros(valid));
+    };
+
+    /**
+     * Picks the next move of a game
+     *
+     * @param board the board to move, which shouldn't be changed
+     * @param random the random generator of the game being played
+     * @return the direction to move, or null if no move can be done
+     */
+    Direction choose(Board board, Random random);
+
+    /**
+     * Makes a policy that plays the moves a Solver picks
+     *
+     * @param solver the solver to ask for each move
+     * @return the new policy
+     */
+    static MovePolicy of(Solver solver) {
+        return (board, random) -> solver.bestMove(board);
+    }
+}
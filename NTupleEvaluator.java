@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores packed 4x4 boards with an n-tuple network: each tuple is a group
+ * of tiles whose exponents, read together, index a table of weights, and
+ * the score of a board is the sum of the weights picked by every tuple on
+ * each of the 8 symmetric boards. With the default tuples that is 40 table
+ * reads per board.
+ * <p/>
+ * The weights are learned by TD(0) on afterstates, the board right after a
+ * move and before a tile spawns, from games the network plays against
+ * itself. Games are played on every thread of a pool at once and every
+ * thread updates the same float[] without locking (Hogwild), since two
+ * threads rarely update the same weight and a lost update only costs a
+ * little learning.
+ * <p/>
+ * Layout of a weights file
+ * <p/>
+ *   header   magic, version and the number of tuples (3 ints)
+ *   tuples   for each tuple its length and then its tiles (ints)
+ *   weights  every table one after the other (floats)
+ *
+ * Bugs: Two 32768 tiles don't merge, the same as in BitBoard
+ */
+
+public class NTupleEvaluator {
+    /* Marks the start of a weights file, "NT48" in ASCII */
+    public static final int MAGIC = 0x4E543438;
+
+    /* Version of the file layout */
+    public static final int VERSION = 1;
+
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TILE_BITS = 4;
+    private static final int TILE_MASK = 0xF;
+    private static final int NUM_TILES = 16;
+    private static final int HEADER_INTS = 3;
+
+    /* Most tiles in a tuple, so that its table size fits in an int */
+    public static final int MAX_TUPLE_TILES = 7;
+
+    /* Default tuples: two straight lines and three 2x2 squares, tiles
+       numbered row by row, which cover every line and square once the
+       symmetries are added */
+    public static final int[][] DEFAULT_TUPLES = {
+        {0, 1, 2, 3},
+        {4, 5, 6, 7},
+        {0, 1, 4, 5},
+        {1, 2, 5, 6},
+        {5, 6, 9, 10},
+    };
+
+    /* Default learning rate, shared out over every weight of a board */
+    public static final double DEFAULT_LEARNING_RATE = 0.1;
+
+    /* Mixed into the seed of a game to get the seed of its tiles */
+    private static final long SEED_MIX = 0x9E3779B97F4A7C15L;
+
+    /* Number of games between progress lines while training */
+    private static final long REPORT_GAMES = 10000;
+
+    /* Default number of training games */
+    private static final long DEFAULT_GAMES = 100000;
+
+    /* Tiles of each tuple */
+    private final int[][] tuples;
+
+    /* Index of the first weight of each tuple's table */
+    private final int[] offsets;
+
+    /* Every table one after the other */
+    private final float[] weights;
+
+    /* Number of weights read to score a board */
+    private final int features;
+
+    /* Number of games trained on */
+    private final LongAdder games = new LongAdder();
+
+    /* Number of games and total score since the mean was last taken */
+    private final LongAdder recentGames = new LongAdder();
+    private final DoubleAdder recentScore = new DoubleAdder();
+
+    /**
+     * Constructor for a network with every weight at 0
+     *
+     * @param tuples the tiles of each tuple, numbered row by row from 0 to
+     *               15, at most MAX_TUPLE_TILES in each and none twice
+     * @throws IllegalArgumentException if a tuple is too long, has a tile
+     *                                  off the board or has a tile twice
+     */
+    public NTupleEvaluator(int[][] tuples) {
+        this.tuples = new int[tuples.length][];
+        this.offsets = new int[tuples.length];
+        long size = 0;
+        for (int t = 0; t < tuples.length; t++) {
+            if (tuples[t].length > MAX_TUPLE_TILES) {
+                throw new IllegalArgumentException("Tuple has more than "
+                        + MAX_TUPLE_TILES + " tiles: " + t);
+            }
+            // one bit for each tile already in the tuple
+            int seen = 0;
+            for (int tile : tuples[t]) {
+                if (tile < 0 || tile >= NUM_TILES) {
+                    throw new IllegalArgumentException(
+                            "Tuple has a tile off the board: " + t);
+                }
+                if ((seen & (ONE << tile)) != 0) {
+                    throw new IllegalArgumentException(
+                            "Tuple has the same tile twice: " + t);
+                }
+                seen |= ONE << tile;
+            }
+            this.tuples[t] = tuples[t].clone();
+            this.offsets[t] = (int) size;
+            size += ONE << (TILE_BITS * tuples[t].length);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Tuples need too many weights");
+            }
+        }
+        this.weights = new float[(int) size];
+        this.features = tuples.length * Symmetry.COUNT;
+    }
+
+    /**
+     * Constructor for a network with the default tuples
+     */
+    public NTupleEvaluator() {
+        this(DEFAULT_TUPLES);
+    }
+
+    /**
+     * Scores a board right after a move
+     *
+     * @param board the packed board
+     * @return the expected score still to come from this board
+     */
+    public float evaluate(long board) {
+        float total = 0;
+        for (int s = 0; s < Symmetry.COUNT; s++) {
+            long symmetric = Symmetry.apply(board, s);
+            for (int t = 0; t < this.tuples.length; t++) {
+                total += this.weights[this.offsets[t]
+                        + this.index(symmetric, t)];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Adds to every weight a board reads
+     *
+     * @param board the packed board
+     * @param delta the amount to add to each weight
+     */
+    private void update(long board, float delta) {
+        for (int s = 0; s < Symmetry.COUNT; s++) {
+            long symmetric = Symmetry.apply(board, s);
+            for (int t = 0; t < this.tuples.length; t++) {
+                // other threads may update the same weight at the same time
+                this.weights[this.offsets[t]
+                        + this.index(symmetric, t)] += delta;
+            }
+        }
+    }
+
+    /**
+     * Reads the exponents of a tuple's tiles as one index
+     *
+     * @param board the packed board
+     * @param tuple the tuple
+     * @return the index into the tuple's table
+     */
+    private int index(long board, int tuple) {
+        int[] tiles = this.tuples[tuple];
+        int index = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            index |= (int) ((board >>> (tiles[i] * TILE_BITS)) & TILE_MASK)
+                    << (i * TILE_BITS);
+        }
+        return index;
+    }
+
+    /**
+     * Picks the move with the highest merge score plus score of the board
+     * after it
+     *
+     * @param board the packed board
+     * @return the best direction, or null if no move can be done
+     */
+    public Direction bestMove(long board) {
+        Direction best = null;
+        float bestValue = Float.NEGATIVE_INFINITY;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            Direction direction = Direction.get(d);
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            float value = BitBoard.moveScore(board, direction)
+                    + this.evaluate(moved);
+            if (value > bestValue) {
+                bestValue = value;
+                best = direction;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays games against itself on every thread of a pool, learning from
+     * each move, and waits for them to finish
+     *
+     * @param gameCount the number of games to play
+     * @param seed the seed of the first game
+     * @param learningRate the learning rate
+     * @param pool the pool to play on
+     */
+    public void train(long gameCount, long seed, double learningRate,
+            ForkJoinPool pool) {
+        AtomicLong nextGame = new AtomicLong();
+        float rate = (float) (learningRate / this.features);
+        ForkJoinTask<?>[] workers =
+                new ForkJoinTask<?>[pool.getParallelism()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = pool.submit(() -> {
+                long game;
+                while ((game = nextGame.getAndIncrement()) < gameCount) {
+                    Random random = new Random((seed + game) ^ SEED_MIX);
+                    this.recentScore.add(this.trainGame(random, rate));
+                    this.recentGames.increment();
+                    this.games.increment();
+                }
+            });
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Plays one game, moving the score of each afterstate towards the
+     * reward of the next move plus the score of the next afterstate
+     *
+     * @param random the random generator for tile values and locations
+     * @param rate the learning rate for each weight
+     * @return the score of the game
+     */
+    private long trainGame(Random random, float rate) {
+        long board = BitBoard.addRandomTile(
+                BitBoard.addRandomTile(0, random), random);
+        long score = 0;
+        boolean learning = false;
+        long afterstate = 0;
+        while (true) {
+            Direction direction = this.bestMove(board);
+            if (direction == null) {
+                // nothing more is scored after the last afterstate
+                if (learning) {
+                    this.update(afterstate, -rate * this.evaluate(afterstate));
+                }
+                return score;
+            }
+            long moved = BitBoard.move(board, direction);
+            int reward = BitBoard.moveScore(board, direction);
+            if (learning) {
+                float error = reward + this.evaluate(moved)
+                        - this.evaluate(afterstate);
+                this.update(afterstate, rate * error);
+            }
+            learning = true;
+            afterstate = moved;
+            score += reward;
+            board = BitBoard.addRandomTile(moved, random);
+        }
+    }
+
+    /**
+     * get the number of games trained on
+     *
+     * @return the number of games
+     */
+    public long getGames() {
+        return this.games.sum();
+    }
+
+    /**
+     * get the mean score of the games trained on, then starts the mean
+     * over
+     *
+     * @return the mean score, or 0 if no game was played
+     */
+    public double takeMeanScore() {
+        long n = this.recentGames.sumThenReset();
+        double sum = this.recentScore.sumThenReset();
+        return n == 0 ? 0 : sum / n;
+    }
+
+    /**
+     * Writes the tuples and weights to a file through a memory mapping,
+     * replacing what was there
+     *
+     * @param path the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path path) throws IOException {
+        int headerInts = HEADER_INTS;
+        for (int[] tuple : this.tuples) {
+            headerInts += ONE + tuple.length;
+        }
+        long bytes = (long) headerInts * Integer.BYTES
+                + (long) this.weights.length * Float.BYTES;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer file = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, bytes);
+            file.putInt(MAGIC);
+            file.putInt(VERSION);
+            file.putInt(this.tuples.length);
+            for (int[] tuple : this.tuples) {
+                file.putInt(tuple.length);
+                for (int tile : tuple) {
+                    file.putInt(tile);
+                }
+            }
+            file.asFloatBuffer().put(this.weights);
+            file.force();
+        }
+    }
+
+    /**
+     * Reads a network written by save through a memory mapping
+     *
+     * @param path the file to read
+     * @return the network
+     * @throws IOException if the file can't be read or isn't a weights file
+     */
+    public static NTupleEvaluator load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer file = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.getInt() != MAGIC || file.getInt() != VERSION) {
+                throw new IOException("Not a weights file");
+            }
+            int[][] tuples = new int[file.getInt()][];
+            for (int t = 0; t < tuples.length; t++) {
+                tuples[t] = new int[file.getInt()];
+                for (int i = 0; i < tuples[t].length; i++) {
+                    tuples[t][i] = file.getInt();
+                }
+            }
+            NTupleEvaluator evaluator;
+            try {
+                evaluator = new NTupleEvaluator(tuples);
+            }
+            catch (IllegalArgumentException e) {
+                throw new IOException("Not a weights file", e);
+            }
+            if (file.remaining()
+                    != (long) evaluator.weights.length * Float.BYTES) {
+                throw new IOException("Weights file is cut short");
+            }
+            file.asFloatBuffer().get(evaluator.weights);
+            return evaluator;
+        }
+    }
+
+    /**
+     * Trains a network from the command line, printing the mean score of
+     * each block of games, and saves it
+     *
+     * @param args the weights file, which is trained further if it exists,
+     *             then number of games and seed, both optional
+     * @throws IOException if the weights file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args[0]);
+        long gameCount = args.length > 1 ? Long.parseLong(args[1])
+                : DEFAULT_GAMES;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        NTupleEvaluator evaluator = path.toFile().exists() ? load(path)
+                : new NTupleEvaluator();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (long done = 0; done < gameCount; done += REPORT_GAMES) {
+            long games = Math.min(REPORT_GAMES, gameCount - done);
+            evaluator.train(games, seed + done, DEFAULT_LEARNING_RATE, pool);
+            System.out.printf("games %d: mean score %.1f%n", done + games,
+                    evaluator.takeMeanScore());
+        }
+        evaluator.save(path);
+    }
+}
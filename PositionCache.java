@@ -0,0 +1,233 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of scores and best moves for packed 4x4
+ * boards. Every board is stored under its Symmetry.canonical board, so the
+ * 8 boards symmetric to each other share one entry, and best moves are
+ * turned back into the direction for the board that was asked about. A
+ * board that is symmetric to itself can get back any of the moves that are
+ * the same as the stored one under that symmetry.
+ * <p/>
+ * The cache is split into buckets of WAYS entries and a board can only go
+ * into the bucket its hash picks. When the bucket is full, a CLOCK hand
+ * sweeps it and evicts the first entry that wasn't used since the hand last
+ * passed it, which is close to least recently used at a fraction of the
+ * cost. Buckets are locked in stripes, so threads only wait on each other
+ * when they hit the same stripe.
+ *
+ * Bugs: None known
+ */
+
+public class PositionCache {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+
+    /* Number of entries in each bucket */
+    private static final int WAYS = 8;
+
+    /* Number of locks the buckets share */
+    private static final int STRIPES = 64;
+
+    /* State of an entry */
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+
+    /* Move stored for an entry without a best move */
+    private static final byte NO_MOVE = -1;
+
+    /* Canonical board of each entry */
+    private final long[] keys;
+
+    /* Score of each entry */
+    private final double[] scores;
+
+    /* Ordinal of the best move of each entry, for the canonical board */
+    private final byte[] moves;
+
+    /* EMPTY, USED or REFERENCED for each entry */
+    private final byte[] states;
+
+    /* Next entry the CLOCK hand of each bucket looks at */
+    private final byte[] hands;
+
+    /* Mask used to turn a hash into a bucket */
+    private final int bucketMask;
+
+    /* Locks shared by the buckets */
+    private final Object[] locks;
+
+    /* Number of lookups that found and didn't find a board */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor for an empty cache
+     *
+     * @param capacity the most boards to keep, rounded up to a power of two
+     *                 of at least WAYS
+     */
+    public PositionCache(int capacity) {
+        int buckets = Integer.highestOneBit(
+                Math.max(ONE, (capacity + WAYS - ONE) / WAYS));
+        if (buckets * WAYS < capacity) {
+            buckets <<= ONE;
+        }
+        this.bucketMask = buckets - ONE;
+        this.keys = new long[buckets * WAYS];
+        this.scores = new double[buckets * WAYS];
+        this.moves = new byte[buckets * WAYS];
+        this.states = new byte[buckets * WAYS];
+        this.hands = new byte[buckets];
+        this.locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Stores the score and best move of a board, replacing what was stored
+     * for it or any board symmetric to it
+     *
+     * @param board the packed board
+     * @param score the score of the board
+     * @param bestMove the best move from the board, or null if there is none
+     */
+    public void put(long board, double score, Direction bestMove) {
+        int symmetry = Symmetry.canonicalSymmetry(board);
+        long key = Symmetry.apply(board, symmetry);
+        byte move = bestMove == null ? NO_MOVE
+                : (byte) Symmetry.apply(bestMove, symmetry).ordinal();
+        int bucket = bucket(key);
+        synchronized (this.locks[bucket % STRIPES]) {
+            int slot = this.find(bucket, key);
+            if (slot < 0) {
+                slot = this.evict(bucket);
+                this.keys[slot] = key;
+            }
+            this.scores[slot] = score;
+            this.moves[slot] = move;
+            this.states[slot] = REFERENCED;
+        }
+    }
+
+    /**
+     * Looks up the score of a board
+     *
+     * @param board the packed board
+     * @return the stored score, or NaN if the board isn't in the cache
+     */
+    public double getScore(long board) {
+        long key = Symmetry.canonical(board);
+        int bucket = bucket(key);
+        synchronized (this.locks[bucket % STRIPES]) {
+            int slot = this.find(bucket, key);
+            if (slot < 0) {
+                this.misses.increment();
+                return Double.NaN;
+            }
+            this.hits.increment();
+            this.states[slot] = REFERENCED;
+            return this.scores[slot];
+        }
+    }
+
+    /**
+     * Looks up the best move of a board
+     *
+     * @param board the packed board
+     * @return the stored best move turned back into a direction for this
+     *         board, or null if the board isn't in the cache or had no move
+     */
+    public Direction getBestMove(long board) {
+        int symmetry = Symmetry.canonicalSymmetry(board);
+        long key = Symmetry.apply(board, symmetry);
+        int bucket = bucket(key);
+        byte move;
+        synchronized (this.locks[bucket % STRIPES]) {
+            int slot = this.find(bucket, key);
+            if (slot < 0) {
+                this.misses.increment();
+                return null;
+            }
+            this.hits.increment();
+            this.states[slot] = REFERENCED;
+            move = this.moves[slot];
+        }
+        return move == NO_MOVE ? null
+                : Symmetry.undo(Direction.get(move), symmetry);
+    }
+
+    /**
+     * get the number of lookups that found a board
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * get the number of lookups that didn't find a board
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Finds the entry of a board in its bucket
+     * Precondition: the lock of the bucket is held
+     *
+     * @param bucket the bucket of the board
+     * @param key the canonical board
+     * @return the entry, or -1 if the board isn't in the bucket
+     */
+    private int find(int bucket, long key) {
+        int start = bucket * WAYS;
+        for (int slot = start; slot < start + WAYS; slot++) {
+            if (this.states[slot] != EMPTY && this.keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -ONE;
+    }
+
+    /**
+     * Picks the entry of a bucket a new board goes into, which is an empty
+     * one if there is one and otherwise the first one the CLOCK hand finds
+     * that wasn't used since it last passed
+     * Precondition: the lock of the bucket is held
+     *
+     * @param bucket the bucket to pick from
+     * @return the entry to use
+     */
+    private int evict(int bucket) {
+        int start = bucket * WAYS;
+        for (int slot = start; slot < start + WAYS; slot++) {
+            if (this.states[slot] == EMPTY) {
+                return slot;
+            }
+        }
+        // gives every referenced entry a second chance
+        int hand = this.hands[bucket];
+        while (this.states[start + hand] == REFERENCED) {
+            this.states[start + hand] = USED;
+            hand = (hand + ONE) % WAYS;
+        }
+        this.hands[bucket] = (byte) ((hand + ONE) % WAYS);
+        return start + hand;
+    }
+
+    /**
+     * Picks the bucket of a canonical board
+     *
+     * @param key the canonical board
+     * @return the bucket
+     */
+    private int bucket(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> Integer.SIZE)) & this.bucketMask;
+    }
+}
@@ -0,0 +1,478 @@
+/**
+ * The original 4x4 move, canMove and rotate code of Board, kept exactly as
+ * it was written (other than canMoveUp counting up instead of down) so that
+ * faster or more general move kernels can be checked against it.
+ *
+ * Bugs: Only works on 4x4 grids
+ */
+
+public class ReferenceBoard {
+    /**
+     * Moves the tiles of a grid in place the way the original Board did
+     *
+     * @param grid the 4x4 grid to move, changed in place
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public static boolean move(int[][] grid, Direction direction) {
+        /* if canMove is false, exit and don't move tiles */
+        if (!canMove(grid, direction)) return false;
+
+        /* move in relationship to the direction passed in */
+        switch (direction) {
+            case UP:
+                moveUp(grid);
+                break;
+            case RIGHT:
+                moveRight(grid);
+                break;
+            case DOWN:
+                moveDown(grid);
+                break;
+            case LEFT:
+                moveLeft(grid);
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks to see if the tiles of a grid can move the way the original
+     * Board did
+     *
+     * @param grid the 4x4 grid to check
+     * @param direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public static boolean canMove(int[][] grid, Direction direction) {
+        switch (direction) {
+            case UP:
+                return canMoveUp(grid);
+            case RIGHT:
+                return canMoveRight(grid);
+            case DOWN:
+                return canMoveDown(grid);
+            case LEFT:
+                return canMoveLeft(grid);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Rotate a grid 90 degrees clockwise given the number of times
+     *
+     * @param grid the 4x4 grid to rotate, changed in place
+     * @param number The number of clockwise 90 degree rotations you want to do
+     */
+    public static void rotate(int[][] grid, int number) {
+        if (number <= 0) return;
+        for (int i = 0; i < number % 4; i++) rotate(grid);
+    }
+
+    /**
+     * Rotate 90 degrees clockwise
+     *
+     */
+    private static void rotate(int[][] grid) {
+        // 4 rotations to get to the original (4*90=360)
+        int sideNum = 4;
+        // this for loop iterates through only the right side of the
+        // diagonal of the grid
+        for (int i = 0; i < sideNum / 2; i++) {
+            // for i=0, j=0,1,2; i=1, j=1,2; i=2, j=2,3; i=3, j=3
+            for (int j = i; j < sideNum - i - 1; j++) {
+                // temporary variable to hold the value at row i and column j
+                int oldGridValue = grid[i][j];
+                // starts rotating the board
+                // Ex: grid[0][0] = grid[3][0] and
+                //     grid[1][0] = grid[3][1]
+                // swaps the values
+                grid[i][j] = grid[sideNum - 1 - j][i];
+                grid[sideNum - 1 - j][i] =
+                        grid[sideNum - 1 - i][sideNum - 1 - j];
+                grid[sideNum - 1 - i][sideNum - 1 - j] =
+                        grid[j][sideNum - 1 - i];
+                // puts new value at row i, column j
+                grid[j][sideNum - 1 - i] = oldGridValue;
+            }
+        }
+    }
+
+    /**
+     * determines if a move leftwards is possible
+     *
+     * @return true if such a move is possible, false if no such move is
+     */
+    private static boolean canMoveLeft(int[][] grid) {
+        for (int i = 0; i < grid.length; i++) {
+            for (int j = 0; j < grid[0].length - 1; j++) {
+                // used to check the column to the right
+                int spot = j + 1;
+                // checks if the original position is 0 and if the column to
+                // the right is a number to see if it can move left
+                if (grid[i][j] == 0 && grid[i][spot] != 0) {
+                    return true;
+                }
+                // checks for pairs
+                if (grid[i][j] == grid[i][spot] &&
+                         grid[i][j]!=0) {
+                    return true;
+                }
+            }
+        }
+        // returns false if it can't move left
+        return false;
+    }
+
+    /**
+     * determines if a move downwards is possible
+     *
+     * @return true if such a move is possible, false if no such move is
+     */
+    private static boolean canMoveDown(int[][] grid) {
+        for (int i = grid.length - 1; i > 0  ; i--) {
+            for (int j = 0; j < grid[0].length; j++) {
+                // used to check the row above
+                int spot = i - 1;
+                // checks if the current position is 0 and
+                // the row above is a number to see if it can move down
+                if (grid[i][j] == 0 && grid[spot][j] != 0) {
+                    return true;
+                }
+                // checks for pairs
+                if (grid[i][j] == grid[spot][j] &&
+                         grid[i][j]!=0) {
+                    return true;
+                }
+            }
+        }
+        // returns false if it can't move down
+        return false;
+    }
+
+    /**
+     * determines if a move rightward is possible
+     *
+     * @return true if such a move is possible, false if no such move is
+     */
+    private static boolean canMoveRight(int[][] grid) {
+        for (int i = 0; i < grid.length; i++) {
+            for (int j = grid[0].length - 1; j > 0; j--) {
+                // used to check the column to the left
+                int spot = j - 1;
+                // checks if the original position is 0 and if the column to
+                // the left is a number to see if it can move right
+                if (grid[i][j] == 0 && grid[i][spot] != 0) {
+                    return true;
+                }
+                // checks for pairs
+                if (grid[i][j] == grid[i][spot] &&
+                        grid[i][j]!=0) {
+                    return true;
+                }
+            }
+        }
+        // returns false if it can't move right
+        return false;
+    }
+
+    /**
+     * determines if a move upwards is possible
+     *
+     * @return true if such a move is possible, false if no such move is
+     */
+    private static boolean canMoveUp(int[][] grid) {
+        for (int i = 0; i < grid.length - 1  ; i++) {
+            for (int j = 0; j < grid[0].length; j++) {
+                // used to check the row below
+                int spot = i + 1;
+                // checks if the current position is 0 and
+                // the row below is a number to see if it can move up
+                if (grid[i][j] == 0 && grid[spot][j] != 0) {
+                    return true;
+                }
+                // checks for pairs
+                if (grid[spot][j] == grid[i][j] &&
+                                    grid[i][j]!=0) {
+                    return true;
+                }
+            }
+        }
+        // returns false if it can't move up
+        return false;
+    }
+
+    /**
+     * performs a move left
+     * Precondition: a left move is possible.
+     * Postcondition: The board is modified to reflect the move
+     */
+    private static void moveLeft(int[][] grid) {
+        // iterates through all the rows
+        for (int i = 0; i < grid.length; i++) {
+            // nextSpot is used to if the spot to the left is open
+            // -takes into account multiple spots
+            int nextSpot = 0;
+            // iterates through all the columns
+            for (int j = 0; j < grid[0].length; j++) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value to the left
+                    grid[i][nextSpot] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most left side
+                    if (j != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // increments if a value is not equal to 0
+                    nextSpot++;
+                }
+            }
+        }
+        // this for loop is for finding pairs and adding them
+        for (int i = 0; i < grid.length; i++) {
+            // only iterates in columns 0, 1, 2 because we are checking the
+            // the column and the column to the right of it
+            for (int j = 0; j < grid[0].length - 1; j++) {
+                // checks if the value in the column and the column to the
+                // right are the same
+                if (grid[i][j] == grid[i][j+1]) {
+                    // adds up the values of the pairs
+                    int total = grid[i][j] + grid[i][j+1];
+                    // sets the total value to the column to the left
+                    grid[i][j] = total;
+                    // sets the the column to the right equal to 0
+                    grid[i][j+1]=0;
+                }
+            }
+        }
+        // this third for loop is used to move everything to the left after
+        // taking care of pairs
+
+        // iterates through all the rows
+        for (int i = 0; i < grid.length; i++) {
+            // nextSpot is used to if the spot to the left is open
+            // -takes into account multiple spots
+            int nextSpot = 0;
+            // iterates through all the columns
+            for (int j = 0; j < grid[0].length; j++) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value to the left
+                    grid[i][nextSpot] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most left side
+                    if (j != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // increments if a value is not equal to 0
+                    nextSpot++;
+                }
+            }
+        }
+    }
+
+    /**
+     * performs a move downward
+     * Precondition: a downward move is possible.
+     * Postcondition: The board is modified to reflect the move
+     */
+    private static void moveDown(int[][] grid) {
+        for (int j = 0; j < grid[0].length; j++) {
+            // nextSpot is used to if the spot below is open
+            // -takes into account multiple spots
+            int nextSpot = 3;
+            for (int i = grid.length - 1; i >= 0 ; i--) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value downward
+                    grid[nextSpot][j] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most bottom side
+                    if (i != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // decrements if a value is not equal to 0
+                    nextSpot--;
+                }
+            }
+        }
+        // this for loop is for finding pairs and adding them
+        for (int j = 0; j < grid[0].length ; j++) {
+            // only iterates in rows 1, 2, 3 because we are checking the
+            // the row and the row above of it
+            for (int i = grid.length - 1; i > 0 ; i--) {
+                // checks if the value in the row and the row above
+                // are the same
+                if (grid[i][j] == grid[i-1][j]) {
+                    // adds up the values of the pairs
+                    int total = grid[i][j] + grid[i-1][j];
+                    // sets the total value to the original row
+                    grid[i][j] = total;
+                    // sets the the row above equal to 0
+                    grid[i-1][j]=0;
+                }
+            }
+        }
+        // this third for loop is used to move everything downward after
+        // taking care of pairs
+        for (int j = 0; j < grid[0].length; j++) {
+            // nextSpot is used to if the spot below is open
+            // -takes into account multiple spots
+            int nextSpot = 3;
+            for (int i = grid.length - 1; i >= 0 ; i--) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value downward
+                    grid[nextSpot][j] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most bottom side
+                    if (i != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // decrements if a value is not equal to 0
+                    nextSpot--;
+                }
+            }
+        }
+    }
+
+    /**
+     * performs a move right
+     * Precondition: a right move is possible.
+     * Postcondition: The board is modified to reflect the move
+     */
+    private static void moveRight(int[][] grid) {
+        // iterates through all the rows
+        for (int i = 0; i < grid.length; i++) {
+            // nextSpot is used to if the spot to the right is open
+            // -takes into account multiple spots
+            int nextSpot = 3;
+            // iterates through all the columns
+            for (int j = grid[0].length - 1; j >= 0; j--) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value to the right
+                    grid[i][nextSpot] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most right side
+                    if (j != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // decrements if a value is not equal to 0
+                    nextSpot--;
+                }
+            }
+        }
+        // this for loop is for finding pairs and adding them
+        for (int i = 0; i < grid.length; i++) {
+            // only iterates in columns 1, 2, 3 because we are checking the
+            // the column and the column to the left of it
+            for (int j = grid[0].length - 1; j > 0; j--) {
+                // checks if the value in the column and the column to the
+                // left are the same
+                if (grid[i][j] == grid[i][j-1]) {
+                    // adds up the values of the pairs
+                    int total = grid[i][j] + grid[i][j-1];
+                    // sets the total value to the column to the right
+                    grid[i][j] = total;
+                    // sets the the column to the left equal to 0
+                    grid[i][j-1]=0;
+                }
+            }
+        }
+        // this third for loop is used to move everything to the left after
+        // taking care of pairs
+
+        // iterates through all the rows
+        for (int i = 0; i < grid.length; i++) {
+            // nextSpot is used to if the spot to the right is open
+            // -takes into account multiple spots
+            int nextSpot = 3;
+            // iterates through all the columns
+            for (int j = grid[0].length - 1; j >= 0; j--) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value to the right
+                    grid[i][nextSpot] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most right side
+                    if (j != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // decrements if a value is not equal to 0
+                    nextSpot--;
+                }
+            }
+        }
+    }
+
+    /**
+     * performs a move upward
+     *
+     * Precondition: an upward move is possible.
+     * Postcondition: The board is modified to reflect the move
+     */
+    private static void moveUp(int[][] grid) {
+        for (int j = 0; j < grid[0].length; j++) {
+            // nextSpot is used to if the spot above is open
+            // -takes into account multiple spots
+            int nextSpot = 0;
+            for (int i = 0; i < grid.length; i++) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value upward
+                    grid[nextSpot][j] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most top side
+                    if (i != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // increments if a value is not equal to 0
+                    nextSpot++;
+                }
+            }
+        }
+        // this for loop is for finding pairs and adding them
+        for (int j = 0; j < grid[0].length ; j++) {
+            // only iterates in rows 0, 1, 2 because we are checking the
+            // the row and the row below of it
+            for (int i = 0; i < grid.length - 1 ; i++) {
+                // checks if the value in the row and the row below
+                // are the same
+                if (grid[i][j] == grid[i+1][j]) {
+                    // adds up the values of the pairs
+                    int total = grid[i][j] + grid[i+1][j];
+                    // sets the total value to the original row
+                    grid[i][j] = total;
+                    // sets the the row above equal to 0
+                    grid[i+1][j]=0;
+                }
+            }
+        }
+        // this third for loop is used to move everything upward after
+        // taking care of pairs
+        for (int j = 0; j < grid[0].length; j++) {
+            // nextSpot is used to if the spot above is open
+            // -takes into account multiple spots
+            int nextSpot = 0;
+            for (int i = 0; i < grid.length; i++) {
+                // checks if the value at row i and column j is not 0
+                if (grid[i][j] != 0) {
+                    // moves the value upward
+                    grid[nextSpot][j] = grid[i][j];
+                    // makes the original spot equal to 0
+                    // also takes into account the most top side
+                    if (i != nextSpot) {
+                        grid[i][j]=0;
+                    }
+                    // increments if a value is not equal to 0
+                    nextSpot++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays every game of a game log through Board.move and checks each
+ * recorded board against the one before it. In a log, a record holding a
+ * move is followed by the board after that move and the tile spawned after
+ * it, so each step only needs two records and steps can be checked in any
+ * order. A step is correct if the move changes the board and the next board
+ * is the moved board with one 2 or 4 added to an empty tile.
+ * <p/>
+ * The calling thread hands out batches of record indexes through a bounded
+ * queue and waits when it is full, so however large the log is only a few
+ * batches are waiting at once and the records themselves are read straight
+ * from the mapped file by the workers. Workers wait for a batch through
+ * ForkJoinPool.managedBlock, so the pool can make up for a blocked worker
+ * instead of running short of threads. A record that can't even be read,
+ * such as one with a corrupt move, counts as a divergence, and if a worker
+ * dies anyway the calling thread stops handing out batches and rethrows
+ * what killed it.
+ *
+ * Bugs: A log whose last game has no NO_MOVE record yet counts as a
+ *       divergence at its last record
+ */
+
+public class ReplayVerifier {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int FOUR = 4;
+
+    /* Default number of records in each batch */
+    public static final int DEFAULT_BATCH_RECORDS = 1 << 16;
+
+    /* Number of batches that can wait in the queue for each worker */
+    private static final int BATCHES_PER_WORKER = 2;
+
+    /* Batch given to each worker once there are no more batches */
+    private static final long NO_MORE_BATCHES = -1;
+
+    /* Time to wait for room in the queue before checking on the workers */
+    private static final long WAIT_MILLIS = 100;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* The log being checked */
+    private final GameLogReader reader;
+
+    /* Number of records in each batch */
+    private final int batchRecords;
+
+    /* Number of records, steps, games and divergences checked */
+    private final LongAdder records = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder divergences = new LongAdder();
+
+    /* Total score of every move replayed */
+    private final LongAdder score = new LongAdder();
+
+    /* Guards firstDivergence and firstDivergenceMessage */
+    private final Object divergenceLock = new Object();
+
+    /* Index of the first record that diverged, or Long.MAX_VALUE */
+    private long firstDivergence = Long.MAX_VALUE;
+
+    /* What went wrong at firstDivergence */
+    private String firstDivergenceMessage;
+
+    /* Time the last run took */
+    private long elapsedNanos;
+
+    /**
+     * Constructor for a verifier of a log
+     *
+     * @param reader the log to check
+     * @param batchRecords the number of records in each batch
+     */
+    public ReplayVerifier(GameLogReader reader, int batchRecords) {
+        this.reader = reader;
+        this.batchRecords = batchRecords;
+    }
+
+    /**
+     * Checks every record of the log on a pool, one worker per thread of
+     * the pool, and waits for them to finish
+     *
+     * @param pool the pool to check on
+     * @return true if no record diverged
+     * @throws InterruptedException if the thread is interrupted while
+     *                              waiting for room in the queue
+     */
+    public boolean run(ForkJoinPool pool) throws InterruptedException {
+        long start = System.nanoTime();
+        int workerCount = pool.getParallelism();
+        BlockingQueue<Long> batches =
+                new ArrayBlockingQueue<>(workerCount * BATCHES_PER_WORKER);
+        ForkJoinTask<?>[] workers = new ForkJoinTask<?>[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = pool.submit(() -> this.work(batches));
+        }
+        // waits for room whenever the workers fall behind
+        for (long first = 0; first < this.reader.size();
+                first += this.batchRecords) {
+            put(batches, first, workers);
+        }
+        for (int i = 0; i < workerCount; i++) {
+            put(batches, NO_MORE_BATCHES, workers);
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+        return this.divergences.sum() == 0;
+    }
+
+    /**
+     * Puts a batch in the queue, checking on the workers while waiting for
+     * room so that a dead worker can't leave the calling thread waiting
+     * forever
+     *
+     * @param batches the queue of batches
+     * @param first the batch to put
+     * @param workers the workers taking batches
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static void put(BlockingQueue<Long> batches, long first,
+            ForkJoinTask<?>[] workers) throws InterruptedException {
+        while (!batches.offer(first, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            for (ForkJoinTask<?> worker : workers) {
+                if (worker.isCompletedAbnormally()) {
+                    // stops the other workers, then rethrows what
+                    // killed this one
+                    batches.clear();
+                    for (int i = 0; i < workers.length; i++) {
+                        batches.offer(NO_MORE_BATCHES);
+                    }
+                    worker.join();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps taking the next batch and checking it until there are no more
+     *
+     * @param batches the queue of batches
+     */
+    private void work(BlockingQueue<Long> batches) {
+        int size = this.reader.getBoardSize();
+        Board board = new Board(new Random(0), new int[size][size]);
+        int[] tiles = new int[size * size];
+        int[] next = new int[size * size];
+        BatchTaker taker = new BatchTaker(batches);
+        try {
+            while (true) {
+                long first = taker.take();
+                if (first == NO_MORE_BATCHES) {
+                    return;
+                }
+                long end = Math.min(first + this.batchRecords,
+                        this.reader.size());
+                for (long i = first; i < end; i++) {
+                    this.check(i, board, tiles, next);
+                }
+                this.records.add(end - first);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks the step from one record to the next, counting a record that
+     * can't be read as a divergence
+     *
+     * @param index the index of the record
+     * @param board reused board to replay the move on
+     * @param tiles reused buffer for the tiles of the record
+     * @param next reused buffer for the tiles of the next record
+     */
+    private void check(long index, Board board, int[] tiles, int[] next) {
+        try {
+            this.checkStep(index, board, tiles, next);
+        }
+        catch (RuntimeException e) {
+            this.diverge(index, e.toString());
+        }
+    }
+
+    /**
+     * Checks the step from one record to the next
+     *
+     * @param index the index of the record
+     * @param board reused board to replay the move on
+     * @param tiles reused buffer for the tiles of the record
+     * @param next reused buffer for the tiles of the next record
+     */
+    private void checkStep(long index, Board board, int[] tiles,
+            int[] next) {
+        Direction move = this.reader.readMove(index);
+        if (move == null) {
+            this.games.increment();
+            return;
+        }
+        if (index + ONE >= this.reader.size()) {
+            this.diverge(index, "game has no end");
+            return;
+        }
+        this.steps.increment();
+        this.reader.readTiles(index, tiles);
+        board.setTiles(tiles);
+        if (!board.move(move)) {
+            this.diverge(index, move + " doesn't change the board");
+            return;
+        }
+        this.score.add(board.getLastMoveScore());
+        board.getTiles(tiles);
+        this.reader.readTiles(index + ONE, next);
+        // the only tile allowed to differ is the one that spawned
+        int spawns = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != next[i]) {
+                if (tiles[i] != 0 || (next[i] != TWO && next[i] != FOUR)) {
+                    this.diverge(index, "tile " + i + " is " + next[i]
+                            + " after " + move + " instead of " + tiles[i]);
+                    return;
+                }
+                spawns++;
+            }
+        }
+        if (spawns != ONE) {
+            this.diverge(index, spawns + " tiles spawned after " + move);
+        }
+    }
+
+    /**
+     * Records a divergence, keeping the message of the earliest one
+     *
+     * @param index the index of the record that diverged
+     * @param message what went wrong
+     */
+    private void diverge(long index, String message) {
+        this.divergences.increment();
+        synchronized (this.divergenceLock) {
+            if (index < this.firstDivergence) {
+                this.firstDivergence = index;
+                this.firstDivergenceMessage = message;
+            }
+        }
+    }
+
+    /**
+     * get the number of records checked
+     *
+     * @return the number of records
+     */
+    public long getRecords() {
+        return this.records.sum();
+    }
+
+    /**
+     * get the number of records that diverged
+     *
+     * @return the number of divergences
+     */
+    public long getDivergences() {
+        return this.divergences.sum();
+    }
+
+    /**
+     * get the index of the first record that diverged
+     *
+     * @return the index, or -1 if no record diverged
+     */
+    public long getFirstDivergence() {
+        synchronized (this.divergenceLock) {
+            return this.firstDivergence == Long.MAX_VALUE ? -ONE
+                    : this.firstDivergence;
+        }
+    }
+
+    /**
+     * get what went wrong at the first record that diverged
+     *
+     * @return the message, or null if no record diverged
+     */
+    public String getFirstDivergenceMessage() {
+        synchronized (this.divergenceLock) {
+            return this.firstDivergenceMessage;
+        }
+    }
+
+    /**
+     * get the number of records checked each second in the last run
+     *
+     * @return the records per second, or 0 if nothing was run
+     */
+    public double getRecordsPerSecond() {
+        return this.elapsedNanos == 0 ? 0
+                : this.getRecords() * NANOS_PER_SECOND / this.elapsedNanos;
+    }
+
+    /**
+     * Return the results as a String
+     *
+     * @return the records, steps, games, speed and first divergence
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+                "records %d, steps %d, games %d, score %d, %.0f records/s%n",
+                this.getRecords(), this.steps.sum(), this.games.sum(),
+                this.score.sum(), this.getRecordsPerSecond()));
+        report.append(String.format("divergences %d%n",
+                this.getDivergences()));
+        if (this.getDivergences() != 0) {
+            report.append(String.format("first at record %d: %s%n",
+                    this.getFirstDivergence(),
+                    this.getFirstDivergenceMessage()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes random games to a log, so there is something to check
+     *
+     * @param path the log to write
+     * @param gameCount the number of games
+     * @param seed the seed of the first game
+     * @param boardSize the number of rows and columns of each board
+     * @throws IOException if the log can't be written
+     */
+    public static void record(Path path, long gameCount, long seed,
+            int boardSize) throws IOException {
+        try (GameLogWriter writer = new GameLogWriter(path, boardSize)) {
+            for (long g = 0; g < gameCount; g++) {
+                Game game = new Game(seed + g, boardSize);
+                Random random = new Random(~(seed + g));
+                while (true) {
+                    Direction direction =
+                            MovePolicy.RANDOM.choose(game.getBoard(), random);
+                    writer.append(game.getBoard(), direction);
+                    if (direction == null) {
+                        break;
+                    }
+                    game.play(direction);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks a log from the command line, or writes random games to it
+     * first if a number of games is given
+     *
+     * @param args the log, then number of games and seed to write, optional
+     * @throws IOException if the log can't be read or written
+     * @throws InterruptedException if the check is interrupted
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        Path path = Paths.get(args[0]);
+        if (args.length > ONE) {
+            long seed = args.length > TWO ? Long.parseLong(args[TWO]) : 0;
+            record(path, Long.parseLong(args[ONE]), seed,
+                    BitBoard.GRID_SIZE);
+        }
+        try (GameLogReader reader = new GameLogReader(path)) {
+            ReplayVerifier verifier =
+                    new ReplayVerifier(reader, DEFAULT_BATCH_RECORDS);
+            verifier.run(ForkJoinPool.commonPool());
+            System.out.print(verifier.report());
+        }
+    }
+
+    /**
+     * Takes batches from the queue for a worker, telling the pool when the
+     * worker has to wait for one
+     */
+    private static final class BatchTaker
+            implements ForkJoinPool.ManagedBlocker {
+        /* The queue of batches */
+        private final BlockingQueue<Long> batches;
+
+        /* The batch taken, or null if there isn't one yet */
+        private Long batch;
+
+        /**
+         * Constructor for a taker of a queue
+         *
+         * @param batches the queue of batches
+         */
+        BatchTaker(BlockingQueue<Long> batches) {
+            this.batches = batches;
+        }
+
+        /**
+         * Removes the oldest batch, waiting for one if the queue is empty
+         *
+         * @return the batch
+         * @throws InterruptedException if the thread is interrupted
+         */
+        long take() throws InterruptedException {
+            ForkJoinPool.managedBlock(this);
+            long first = this.batch;
+            this.batch = null;
+            return first;
+        }
+
+        /**
+         * Waits for a batch
+         *
+         * @return true, since a batch has been taken
+         * @throws InterruptedException if the thread is interrupted
+         */
+        @Override
+        public boolean block() throws InterruptedException {
+            if (this.batch == null) {
+                this.batch = this.batches.take();
+            }
+            return true;
+        }
+
+        /**
+         * Takes a batch if one is waiting, so the pool doesn't need to be
+         * told about a wait that won't happen
+         *
+         * @return true if a batch has been taken
+         */
+        @Override
+        public boolean isReleasable() {
+            if (this.batch == null) {
+                this.batch = this.batches.poll();
+            }
+            return this.batch != null;
+        }
+    }
+}
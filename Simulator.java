@@ -0,0 +1,322 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays many games of 2048 at once across every core to see how good a
+ * MovePolicy is. Game number i always uses the seed baseSeed + i for its
+ * Board and its policy, so each game replays exactly no matter which
+ * thread ran it. Results go straight into lock-free histograms and the run
+ * can stop early once the mean score is known closely enough.
+ *
+ * Bugs: None known
+ */
+
+public class Simulator {
+    /* Defined to avoid magic number */
+    private static final int DEFAULT_SIZE = 4;
+
+    /* Number of log2 buckets in each histogram */
+    private static final int BUCKETS = 64;
+
+    /* z value of a 95% confidence interval */
+    private static final double Z_95 = 1.96;
+
+    /* Fewest games played before stopping early, so the variance means
+       something */
+    private static final long MIN_GAMES = 30;
+
+    /* Mixed into the seed of a game to get the seed of its policy */
+    private static final long POLICY_SEED_MIX = 0x9E3779B97F4A7C15L;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* The policy that picks every move */
+    private final MovePolicy policy;
+
+    /* Number of rows and columns of each board */
+    private final int boardSize;
+
+    /* Seed of the first game */
+    private final long baseSeed;
+
+    /* Half width of the 95% confidence interval of the mean score to stop
+       at, or 0 to always play every game */
+    private final double targetConfidence;
+
+    /* Number of the next game to hand out */
+    private final AtomicLong nextGame = new AtomicLong();
+
+    /* Set once the confidence interval is small enough */
+    private volatile boolean stopped;
+
+    /* Number of games played, for each log2 of the largest tile */
+    private final AtomicLongArray maxTiles = new AtomicLongArray(BUCKETS);
+
+    /* Number of games played, for each log2 bucket of the score */
+    private final AtomicLongArray scores = new AtomicLongArray(BUCKETS);
+
+    /* Number of games played, for each log2 bucket of the move count */
+    private final AtomicLongArray moveCounts = new AtomicLongArray(BUCKETS);
+
+    /* Totals used for the mean and variance of the score */
+    private final LongAdder games = new LongAdder();
+    private final LongAdder totalMoves = new LongAdder();
+    private final DoubleAdder scoreSum = new DoubleAdder();
+    private final DoubleAdder scoreSquareSum = new DoubleAdder();
+
+    /* Time the last run took */
+    private long elapsedNanos;
+
+    /**
+     * Constructor for a simulator
+     *
+     * @param policy the policy that picks every move
+     * @param boardSize the number of rows and columns of each board
+     * @param baseSeed the seed of the first game
+     * @param targetConfidence half width of the 95% confidence interval of
+     *                         the mean score to stop at, or 0 to never stop
+     *                         early
+     */
+    public Simulator(MovePolicy policy, int boardSize, long baseSeed,
+                     double targetConfidence) {
+        this.policy = policy;
+        this.boardSize = boardSize;
+        this.baseSeed = baseSeed;
+        this.targetConfidence = targetConfidence;
+    }
+
+    /**
+     * Plays up to a number of games on a pool, one worker per thread of the
+     * pool, and waits for them to finish
+     *
+     * @param gameCount the most games to play
+     * @param pool the pool to play on
+     * @return the number of games played
+     */
+    public long run(long gameCount, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        ForkJoinTask<?>[] workers =
+                new ForkJoinTask<?>[pool.getParallelism()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = pool.submit(() -> this.work(gameCount));
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+        return this.games.sum();
+    }
+
+    /**
+     * Keeps taking the next game and playing it until every game was
+     * handed out or the run was stopped
+     *
+     * @param gameCount the most games to play
+     */
+    private void work(long gameCount) {
+        while (!this.stopped) {
+            long game = this.nextGame.getAndIncrement();
+            if (game >= gameCount) {
+                return;
+            }
+            this.play(this.baseSeed + game);
+        }
+    }
+
+    /**
+     * Plays a single game to the end and adds it to the statistics
+     *
+     * @param seed the seed of the game
+     */
+    private void play(long seed) {
+        // each game has its own board and random generators
+        Game game = new Game(seed, this.boardSize);
+        Random random = new Random(seed ^ POLICY_SEED_MIX);
+        while (!game.isGameOver()) {
+            Direction direction = this.policy.choose(game.getBoard(), random);
+            // a policy that gives up or picks a move that can't be done
+            // ends the game
+            if (direction == null || !game.play(direction)) {
+                break;
+            }
+        }
+        this.record(game);
+    }
+
+    /**
+     * Adds a finished game to the statistics and stops the run if the mean
+     * score is known closely enough
+     *
+     * @param game the finished game
+     */
+    private void record(Game game) {
+        int maxTile = game.getBoard().getMaxTile();
+        long score = game.getScore();
+        this.maxTiles.incrementAndGet(Math.max(0, bucket(maxTile) - 1));
+        this.scores.incrementAndGet(bucket(score));
+        this.moveCounts.incrementAndGet(bucket(game.getMoveCount()));
+        this.totalMoves.add(game.getMoveCount());
+        this.scoreSum.add(score);
+        this.scoreSquareSum.add((double) score * score);
+        this.games.increment();
+        if (this.targetConfidence > 0
+                && this.getScoreConfidence() <= this.targetConfidence) {
+            this.stopped = true;
+        }
+    }
+
+    /**
+     * Finds the log2 bucket of a value, 0 holding only 0 and bucket b
+     * holding 2^(b-1) up to 2^b - 1
+     *
+     * @param value the value, at least 0
+     * @return the bucket of the value
+     */
+    private static int bucket(long value) {
+        return Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * get the number of games played
+     *
+     * @return the number of games
+     */
+    public long getGames() {
+        return this.games.sum();
+    }
+
+    /**
+     * get the mean score of every game played
+     *
+     * @return the mean score, or 0 if no game was played
+     */
+    public double getMeanScore() {
+        long n = this.games.sum();
+        return n == 0 ? 0 : this.scoreSum.sum() / n;
+    }
+
+    /**
+     * get the half width of the 95% confidence interval of the mean score.
+     * The totals are read one at a time while other games finish, so the
+     * result can be slightly off while a run is going.
+     *
+     * @return the half width, or infinity before enough games were played
+     */
+    public double getScoreConfidence() {
+        long n = this.games.sum();
+        if (n < MIN_GAMES) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = this.scoreSum.sum() / n;
+        double variance = Math.max(0,
+                this.scoreSquareSum.sum() / n - mean * mean);
+        return Z_95 * Math.sqrt(variance / n);
+    }
+
+    /**
+     * get the mean number of moves of every game played
+     *
+     * @return the mean move count, or 0 if no game was played
+     */
+    public double getMeanMoves() {
+        long n = this.games.sum();
+        return n == 0 ? 0 : (double) this.totalMoves.sum() / n;
+    }
+
+    /**
+     * get the number of games played for each second of the last run
+     *
+     * @return the games per second
+     */
+    public double getGamesPerSecond() {
+        return this.elapsedNanos == 0 ? 0
+                : this.games.sum() * NANOS_PER_SECOND / this.elapsedNanos;
+    }
+
+    /**
+     * get the number of games played for each log2 of the largest tile
+     *
+     * @return a copy of the histogram, index 11 being games that got 2048
+     */
+    public long[] getMaxTileHistogram() {
+        return copy(this.maxTiles);
+    }
+
+    /**
+     * get the number of games played for each log2 bucket of the score
+     *
+     * @return a copy of the histogram
+     */
+    public long[] getScoreHistogram() {
+        return copy(this.scores);
+    }
+
+    /**
+     * get the number of games played for each log2 bucket of the move count
+     *
+     * @return a copy of the histogram
+     */
+    public long[] getMoveHistogram() {
+        return copy(this.moveCounts);
+    }
+
+    /**
+     * Copies a histogram
+     *
+     * @param histogram the histogram to copy
+     * @return the copy
+     */
+    private static long[] copy(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Return the statistics as a String
+     *
+     * @return the games played, score, moves, speed and largest tiles
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("games %d, %.1f games/s%n",
+                this.getGames(), this.getGamesPerSecond()));
+        report.append(String.format("score %.1f +/- %.1f, moves %.1f%n",
+                this.getMeanScore(), this.getScoreConfidence(),
+                this.getMeanMoves()));
+        long[] tiles = this.getMaxTileHistogram();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != 0) {
+                report.append(String.format("%8d %d%n",
+                        i == 0 ? 0 : 1L << i, tiles[i]));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Runs a simulation from the command line
+     *
+     * @param args number of games, seed, policy ("random" or "solver") and
+     *             target confidence, all optional
+     */
+    public static void main(String[] args) {
+        long gameCount = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        MovePolicy policy = args.length > 2 && args[2].equals("solver")
+                ? MovePolicy.of(new Solver()) : MovePolicy.RANDOM;
+        double target = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        Simulator simulator = new Simulator(policy, DEFAULT_SIZE, seed,
+                target);
+        simulator.run(gameCount, ForkJoinPool.commonPool());
+        System.out.print(simulator.report());
+    }
+}
@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Picks the best next move for a 4x4 Board with a depth-limited expectimax
+ * search. Max nodes try each of the four moves and chance nodes average over
+ * every empty tile getting a 2 or a 4, weighted by TWO_PROBABILITY. The four
+ * moves at the root are searched in parallel on a ForkJoinPool and the values
+ * of positions already searched are kept in a fixed-size transposition table,
+ * keyed so that the 8 symmetric forms of a position share one entry.
+ *
+ * Bugs: None known
+ */
+
+public class Solver {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int FOUR = 4;
+
+    /* Used to turn TWO_PROBABILITY into a probability */
+    private static final double PERCENT = 100.0;
+
+    /* Probability of a 2 when no Board has been searched yet */
+    private static final double DEFAULT_TWO_CHANCE = 0.9;
+
+    /* Default search depth, in moves */
+    public static final int DEFAULT_DEPTH = 3;
+
+    /* Default log2 of the number of transposition table entries */
+    public static final int DEFAULT_TABLE_BITS = 20;
+
+    /* Number of tiles on a packed board */
+    private static final int NUM_TILES = 16;
+
+    /* Number of bits used for a single tile */
+    private static final int TILE_BITS = 4;
+
+    /* Number of bits used for a single row */
+    private static final int ROW_BITS = 16;
+
+    /* Number of different rows, one for each 16 bit value */
+    private static final int ROW_COUNT = 65536;
+
+    /* Mask for a single row */
+    private static final long ROW_MASK = 0xFFFFL;
+
+    /* Mask for the search depth stored with a table entry */
+    private static final long DEPTH_MASK = 0xFFL;
+
+    /* Weights used by the row heuristic */
+    private static final float LOST_PENALTY = 200000.0f;
+    private static final float MONOTONICITY_POWER = 4.0f;
+    private static final float MONOTONICITY_WEIGHT = 47.0f;
+    private static final float SUM_POWER = 3.5f;
+    private static final float SUM_WEIGHT = 11.0f;
+    private static final float MERGES_WEIGHT = 700.0f;
+    private static final float EMPTY_WEIGHT = 270.0f;
+
+    /* Heuristic score for every possible row */
+    private static final float[] ROW_SCORE = new float[ROW_COUNT];
+
+    static {
+        // scores every possible row once
+        int[] line = new int[FOUR];
+        for (int row = 0; row < ROW_COUNT; row++) {
+            for (int c = 0; c < FOUR; c++) {
+                line[c] = (row >>> (c * TILE_BITS)) & 0xF;
+            }
+            ROW_SCORE[row] = scoreLine(line);
+        }
+    }
+
+    /* Number of moves to look ahead */
+    private final int depth;
+
+    /* Pool the root moves are searched on */
+    private final ForkJoinPool pool;
+
+    /* Transposition table, each entry is a key and the data it was
+       stored with, the key being the board xored with the data so that
+       an entry torn by two threads writing at once never matches */
+    private final long[] tableKeys;
+    private final long[] tableData;
+
+    /* Mask used to turn a board hash into a table index */
+    private final int tableMask;
+
+    /* Probability of a 2 the table was filled in with */
+    private int twoProbability = -1;
+
+    /**
+     * Constructor for a solver with the default depth and table size that
+     * runs on the common pool
+     */
+    public Solver() {
+        this(DEFAULT_DEPTH, DEFAULT_TABLE_BITS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for a solver
+     *
+     * @param depth the number of moves to look ahead, at least 1
+     * @param tableBits log2 of the number of transposition table entries
+     * @param pool the pool the root moves are searched on
+     */
+    public Solver(int depth, int tableBits, ForkJoinPool pool) {
+        if (depth < ONE) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.depth = depth;
+        this.pool = pool;
+        this.tableKeys = new long[ONE << tableBits];
+        this.tableData = new long[ONE << tableBits];
+        this.tableMask = (ONE << tableBits) - ONE;
+    }
+
+    /**
+     * Finds the best next move for a board
+     * Precondition: the board is 4x4 and every tile is 0 or a power of two
+     *
+     * @param board the board to search from, it is not changed
+     * @return the best direction, or null if no move can be done
+     */
+    public Direction bestMove(Board board) {
+        this.setTwoProbability(board.TWO_PROBABILITY);
+        return this.bestMove(board.toBitBoard().getBoard());
+    }
+
+    /**
+     * Finds the best next move for a packed board
+     *
+     * @param board the packed board to search from
+     * @return the best direction, or null if no move can be done
+     */
+    public Direction bestMove(long board) {
+        double twoChance = this.twoProbability < 0
+                ? DEFAULT_TWO_CHANCE : this.twoProbability / PERCENT;
+        // searches each possible move on its own thread
+        List<ForkJoinTask<Double>> tasks = new ArrayList<>(Direction.COUNT);
+        List<Direction> directions = new ArrayList<>(Direction.COUNT);
+        for (int d = 0; d < Direction.COUNT; d++) {
+            Direction direction = Direction.get(d);
+            long moved = BitBoard.move(board, direction);
+            // skips moves that don't change the board
+            if (moved == board) {
+                continue;
+            }
+            tasks.add(this.pool.submit(() ->
+                    this.chance(moved, this.depth, twoChance)));
+            directions.add(direction);
+        }
+        // picks the move with the highest expected score
+        Direction best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < tasks.size(); i++) {
+            double score = tasks.get(i).join();
+            if (score > bestScore) {
+                bestScore = score;
+                best = directions.get(i);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Clears the table if it was filled in with another probability
+     *
+     * @param twoProbability the probability (times 100) of a 2
+     */
+    private synchronized void setTwoProbability(int twoProbability) {
+        if (this.twoProbability != twoProbability) {
+            Arrays.fill(this.tableKeys, 0);
+            Arrays.fill(this.tableData, 0);
+            this.twoProbability = twoProbability;
+        }
+    }
+
+    /**
+     * Expected score of a board right after a move, before a tile spawns
+     *
+     * @param board the packed board
+     * @param depth the number of moves left to look ahead
+     * @param twoChance the probability of a 2 spawning
+     * @return the average score over every possible spawn
+     */
+    private double chance(long board, int depth, double twoChance) {
+        double total = 0;
+        int empty = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            int shift = i * TILE_BITS;
+            // only empty tiles can get a new tile
+            if (((board >>> shift) & 0xF) != 0) {
+                continue;
+            }
+            total += twoChance * this.max(board | (1L << shift), depth - ONE,
+                    twoChance);
+            total += (ONE - twoChance) * this.max(board | (2L << shift),
+                    depth - ONE, twoChance);
+            empty++;
+        }
+        // a move always leaves at least one empty tile, but checks anyway
+        return empty == 0 ? evaluate(board) : total / empty;
+    }
+
+    /**
+     * Best score of a board where the player is about to move
+     *
+     * @param board the packed board
+     * @param depth the number of moves left to look ahead
+     * @param twoChance the probability of a 2 spawning
+     * @return the score of the best move
+     */
+    private double max(long board, int depth, double twoChance) {
+        if (depth == 0) {
+            return evaluate(board);
+        }
+        // looks for the board in the table first, under the key shared by
+        // every board symmetric to it since they all have the same score
+        long key = Symmetry.canonical(board);
+        int index = (int) mix(key) & this.tableMask;
+        long data = this.tableData[index];
+        if ((this.tableKeys[index] ^ data) == key
+                && (data & DEPTH_MASK) >= depth) {
+            return Float.intBitsToFloat((int) (data >>> Integer.SIZE));
+        }
+        double best = 0;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            long moved = BitBoard.move(board, Direction.get(d));
+            if (moved != board) {
+                best = Math.max(best, this.chance(moved, depth, twoChance));
+            }
+        }
+        // stores the score for the next time this board is reached
+        data = ((long) Float.floatToRawIntBits((float) best) << Integer.SIZE)
+                | depth;
+        this.tableKeys[index] = key ^ data;
+        this.tableData[index] = data;
+        return best;
+    }
+
+    /**
+     * Heuristic score of a board, adding up the score of every row and
+     * every column
+     *
+     * @param board the packed board
+     * @return the score of the board
+     */
+    public static double evaluate(long board) {
+        long transposed = BitBoard.transpose(board);
+        double score = 0;
+        for (int r = 0; r < FOUR; r++) {
+            int shift = r * ROW_BITS;
+            score += ROW_SCORE[(int) ((board >>> shift) & ROW_MASK)];
+            score += ROW_SCORE[(int) ((transposed >>> shift) & ROW_MASK)];
+        }
+        return score;
+    }
+
+    /**
+     * Heuristic score of a single line of exponents. Rewards empty tiles,
+     * tiles that can merge and lines that only go up or only go down.
+     *
+     * @param line the four exponents of the line
+     * @return the score of the line
+     */
+    private static float scoreLine(int[] line) {
+        float sum = 0;
+        int empty = 0;
+        int merges = 0;
+        int prev = 0;
+        int counter = 0;
+        for (int c = 0; c < FOUR; c++) {
+            int rank = line[c];
+            sum += (float) Math.pow(rank, SUM_POWER);
+            if (rank == 0) {
+                empty++;
+            }
+            else {
+                // counts runs of tiles that could merge with each other
+                if (prev == rank) {
+                    counter++;
+                }
+                else if (counter > 0) {
+                    merges += ONE + counter;
+                    counter = 0;
+                }
+                prev = rank;
+            }
+        }
+        if (counter > 0) {
+            merges += ONE + counter;
+        }
+        // penalizes the line for going both up and down
+        float monotonicityLeft = 0;
+        float monotonicityRight = 0;
+        for (int c = ONE; c < FOUR; c++) {
+            float before = (float) Math.pow(line[c - ONE], MONOTONICITY_POWER);
+            float after = (float) Math.pow(line[c], MONOTONICITY_POWER);
+            if (line[c - ONE] > line[c]) {
+                monotonicityLeft += before - after;
+            }
+            else {
+                monotonicityRight += after - before;
+            }
+        }
+        return LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+                - MONOTONICITY_WEIGHT
+                * Math.min(monotonicityLeft, monotonicityRight)
+                - SUM_WEIGHT * sum;
+    }
+
+    /**
+     * Spreads the bits of a board so that similar boards land on different
+     * table entries
+     *
+     * @param board the packed board
+     * @return the hash of the board
+     */
+    private static long mix(long board) {
+        long h = board * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> Integer.SIZE);
+    }
+}
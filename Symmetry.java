@@ -0,0 +1,229 @@
+/**
+ * The 8 symmetries of a packed 4x4 board (4 rotations, each with or
+ * without a mirror). A board and every board symmetric to it play the same
+ * way, so any of them can stand for the others in a cache. Unlike
+ * Board.rotate this never touches a live grid; every symmetry is a few
+ * shifts and masks on the packed long.
+ * <p/>
+ * Symmetry number s is made by transposing if bit 2 is set, then flipping
+ * the rows upside down if bit 1 is set, then mirroring each row if bit 0 is
+ * set.
+ *
+ * Bugs: None known
+ */
+
+public class Symmetry {
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int FOUR = 4;
+
+    /* Number of symmetries of a square */
+    public static final int COUNT = 8;
+
+    /* Shifts used to move tiles and rows around */
+    private static final int TILE_SHIFT = 4;
+    private static final int THREE_TILES = 12;
+    private static final int ROW_SHIFT = 16;
+    private static final int THREE_ROWS = 48;
+
+    /**
+     * Mirrors each row, so column 0 swaps with column 3 and 1 with 2
+     *
+     * @param x the packed board
+     * @return the mirrored board
+     */
+    public static long mirror(long x) {
+        return ((x & 0x000F000F000F000FL) << THREE_TILES)
+                | ((x & 0x00F000F000F000F0L) << TILE_SHIFT)
+                | ((x >>> TILE_SHIFT) & 0x00F000F000F000F0L)
+                | ((x >>> THREE_TILES) & 0x000F000F000F000FL);
+    }
+
+    /**
+     * Flips the rows upside down, so row 0 swaps with row 3 and 1 with 2
+     *
+     * @param x the packed board
+     * @return the flipped board
+     */
+    public static long flip(long x) {
+        return (x << THREE_ROWS)
+                | ((x & 0xFFFF0000L) << ROW_SHIFT)
+                | ((x >>> ROW_SHIFT) & 0xFFFF0000L)
+                | (x >>> THREE_ROWS);
+    }
+
+    /**
+     * Applies a symmetry to a board
+     *
+     * @param x the packed board
+     * @param symmetry the symmetry number, 0 to 7
+     * @return the changed board
+     */
+    public static long apply(long x, int symmetry) {
+        if ((symmetry & FOUR) != 0) {
+            x = BitBoard.transpose(x);
+        }
+        if ((symmetry & TWO) != 0) {
+            x = flip(x);
+        }
+        if ((symmetry & ONE) != 0) {
+            x = mirror(x);
+        }
+        return x;
+    }
+
+    /**
+     * Finds the smallest of the 8 boards symmetric to a board, which is the
+     * same for every one of them
+     *
+     * @param x the packed board
+     * @return the canonical board
+     */
+    public static long canonical(long x) {
+        return apply(x, canonicalSymmetry(x));
+    }
+
+    /**
+     * Finds the symmetry that turns a board into its canonical board
+     *
+     * @param x the packed board
+     * @return the symmetry number, 0 to 7
+     */
+    public static int canonicalSymmetry(long x) {
+        long t = BitBoard.transpose(x);
+        long f = flip(x);
+        long tf = flip(t);
+        // the 8 boards in symmetry number order
+        long best = x;
+        int symmetry = 0;
+        long candidate = mirror(x);
+        if (candidate < best) {
+            best = candidate;
+            symmetry = ONE;
+        }
+        if (f < best) {
+            best = f;
+            symmetry = TWO;
+        }
+        candidate = mirror(f);
+        if (candidate < best) {
+            best = candidate;
+            symmetry = TWO | ONE;
+        }
+        if (t < best) {
+            best = t;
+            symmetry = FOUR;
+        }
+        candidate = mirror(t);
+        if (candidate < best) {
+            best = candidate;
+            symmetry = FOUR | ONE;
+        }
+        if (tf < best) {
+            best = tf;
+            symmetry = FOUR | TWO;
+        }
+        candidate = mirror(tf);
+        if (candidate < best) {
+            symmetry = FOUR | TWO | ONE;
+        }
+        return symmetry;
+    }
+
+    /**
+     * Finds the direction on the changed board that matches a direction on
+     * the board before a symmetry was applied
+     *
+     * @param direction the direction on the original board
+     * @param symmetry the symmetry number, 0 to 7
+     * @return the matching direction on the changed board
+     */
+    public static Direction apply(Direction direction, int symmetry) {
+        if ((symmetry & FOUR) != 0) {
+            direction = transpose(direction);
+        }
+        if ((symmetry & TWO) != 0) {
+            direction = flip(direction);
+        }
+        if ((symmetry & ONE) != 0) {
+            direction = mirror(direction);
+        }
+        return direction;
+    }
+
+    /**
+     * Finds the direction on the original board that matches a direction on
+     * the board after a symmetry was applied
+     *
+     * @param direction the direction on the changed board
+     * @param symmetry the symmetry number, 0 to 7
+     * @return the matching direction on the original board
+     */
+    public static Direction undo(Direction direction, int symmetry) {
+        // each step undoes itself, so they are undone in reverse order
+        if ((symmetry & ONE) != 0) {
+            direction = mirror(direction);
+        }
+        if ((symmetry & TWO) != 0) {
+            direction = flip(direction);
+        }
+        if ((symmetry & FOUR) != 0) {
+            direction = transpose(direction);
+        }
+        return direction;
+    }
+
+    /**
+     * Swaps left and right
+     *
+     * @param direction the direction
+     * @return the mirrored direction
+     */
+    private static Direction mirror(Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return Direction.RIGHT;
+            case RIGHT:
+                return Direction.LEFT;
+            default:
+                return direction;
+        }
+    }
+
+    /**
+     * Swaps up and down
+     *
+     * @param direction the direction
+     * @return the flipped direction
+     */
+    private static Direction flip(Direction direction) {
+        switch (direction) {
+            case UP:
+                return Direction.DOWN;
+            case DOWN:
+                return Direction.UP;
+            default:
+                return direction;
+        }
+    }
+
+    /**
+     * Swaps left with up and right with down
+     *
+     * @param direction the direction
+     * @return the transposed direction
+     */
+    private static Direction transpose(Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return Direction.UP;
+            case UP:
+                return Direction.LEFT;
+            case RIGHT:
+                return Direction.DOWN;
+            default:
+                return Direction.RIGHT;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chance of reaching a target tile with perfect play, for every
+ * position of a small board (2x2 or 3x3) that can be reached from a new
+ * game. The table is worked out once by generate and then probed in O(1)
+ * through a read-only memory-mapped file.
+ * <p/>
+ * Layout of the file
+ * <p/>
+ *   header   magic, version, board size and target tile (4 ints)
+ *   table    one float for each board, NaN if the board can't be reached
+ *            and otherwise the chance of winning
+ * <p/>
+ * Chances are stored as floats, so each one keeps about 7 significant
+ * digits however small it is.
+ * <p/>
+ * A board is indexed by the log2 of its tiles read row by row as the digits
+ * of a base targetExponent number, so only boards without the target tile
+ * take a slot; any board with it is already won. The generator follows
+ * every move from every new game with Board.moveAll, so the table uses the
+ * same move rules as Board. Every spawn adds 2 or 4 to the sum of the
+ * tiles and a move keeps the sum the same, so the search always ends and
+ * each board is worked out from boards with a larger sum than its own.
+ *
+ * Bugs: The whole table has to fit in one mapping of under 2GB, which is
+ *       3x3 boards with a target of at most 512
+ */
+
+public class Tablebase implements Closeable {
+    /* Marks the start of a tablebase file, "TB48" in ASCII */
+    public static final int MAGIC = 0x54423438;
+
+    /* Version of the file layout */
+    public static final int VERSION = 2;
+
+    /* Offsets of the header fields */
+    public static final int SIZE_OFFSET = 8;
+    public static final int TARGET_OFFSET = 12;
+
+    /* Number of bytes in the header */
+    public static final int HEADER_BYTES = 16;
+
+    /* Defined to avoid magic number */
+    private static final int ONE = 1;
+    private static final int TWO = 2;
+    private static final int FOUR = 4;
+    private static final double HUNDRED = 100.0;
+
+    /* Value stored for a board that can't be reached */
+    private static final float UNKNOWN = Float.NaN;
+
+    /* Used to turn nanoseconds into seconds */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /* The file being read */
+    private final FileChannel channel;
+
+    /* The mapped header and table */
+    private final MappedByteBuffer table;
+
+    /* Number of rows and columns of each board */
+    private final int boardSize;
+
+    /* Log2 of the target tile, which is also the base of an index */
+    private final int targetExponent;
+
+    /**
+     * Constructor that opens a tablebase made by generate
+     *
+     * @param path the file to read
+     * @throws IOException if the file can't be read or isn't a tablebase
+     */
+    public Tablebase(Path path) throws IOException {
+        this.channel = FileChannel.open(path);
+        this.table = this.channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                this.channel.size());
+        if (this.table.getInt(0) != MAGIC
+                || this.table.getInt(Integer.BYTES) != VERSION) {
+            this.channel.close();
+            throw new IOException("Not a tablebase");
+        }
+        this.boardSize = this.table.getInt(SIZE_OFFSET);
+        this.targetExponent = Integer.numberOfTrailingZeros(
+                this.table.getInt(TARGET_OFFSET));
+    }
+
+    /**
+     * get the number of rows and columns of the boards in the table
+     *
+     * @return the board size
+     */
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    /**
+     * get the tile that wins the game
+     *
+     * @return the target tile
+     */
+    public int getTargetTile() {
+        return ONE << this.targetExponent;
+    }
+
+    /**
+     * Looks up the chance of reaching the target tile from a board where
+     * the player is about to move, playing perfectly from there on
+     *
+     * @param tiles the tiles row by row, boardSize * boardSize of them
+     * @return the chance of winning, 1 if the board already has the target
+     *         tile, or NaN if the board can't be reached from a new game
+     */
+    public double probe(int[] tiles) {
+        int index = index(tiles, this.boardSize * this.boardSize,
+                this.targetExponent);
+        if (index < 0) {
+            return ONE;
+        }
+        float stored = this.table.getFloat(offset(index));
+        return Float.isNaN(stored) ? Double.NaN : stored;
+    }
+
+    /**
+     * Closes the file
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Works out the table for a board size and target tile and writes it
+     * to a file, replacing what was there
+     *
+     * @param path the file to write
+     * @param boardSize the number of rows and columns of each board
+     * @param targetTile the tile that wins, a power of two of at least 4
+     * @return the chance of winning from a new game
+     * @throws IOException if the file can't be written
+     */
+    public static double generate(Path path, int boardSize, int targetTile)
+            throws IOException {
+        if (targetTile < FOUR || (targetTile & (targetTile - ONE)) != 0) {
+            throw new IllegalArgumentException(
+                    "Target must be a power of two of at least 4");
+        }
+        int targetExponent = Integer.numberOfTrailingZeros(targetTile);
+        double entries = Math.pow(targetExponent, boardSize * boardSize);
+        if (HEADER_BYTES + entries * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table is too large");
+        }
+        long bytes = HEADER_BYTES + (long) entries * Float.BYTES;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer table = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, bytes);
+            table.putInt(0, MAGIC);
+            table.putInt(Integer.BYTES, VERSION);
+            table.putInt(SIZE_OFFSET, boardSize);
+            table.putInt(TARGET_OFFSET, targetTile);
+            // a new file is all zeros, which would read as a chance of 0
+            for (int i = 0; i < (int) entries; i++) {
+                table.putFloat(offset(i), UNKNOWN);
+            }
+            double win = new Generator(table, boardSize, targetExponent)
+                    .newGame();
+            table.force();
+            return win;
+        }
+    }
+
+    /**
+     * Finds the index of a board in the table
+     *
+     * @param tiles the tiles row by row
+     * @param cells the number of tiles
+     * @param targetExponent log2 of the target tile
+     * @return the index, or -1 if the board has the target tile
+     */
+    private static int index(int[] tiles, int cells, int targetExponent) {
+        int index = 0;
+        for (int i = 0; i < cells; i++) {
+            int value = tiles[i];
+            int exponent = value == 0 ? 0
+                    : Integer.numberOfTrailingZeros(value);
+            if (exponent >= targetExponent) {
+                return -ONE;
+            }
+            index = index * targetExponent + exponent;
+        }
+        return index;
+    }
+
+    /**
+     * Finds where the value of a board is in the file
+     *
+     * @param index the index of the board
+     * @return the byte offset
+     */
+    private static int offset(int index) {
+        return HEADER_BYTES + index * Float.BYTES;
+    }
+
+    /**
+     * Works out every reachable board of a table with a depth first search
+     * from every new game, storing each board the first time it's solved
+     */
+    private static final class Generator {
+        /* The table being filled in */
+        private final MappedByteBuffer table;
+
+        /* Number of tiles on a board */
+        private final int cells;
+
+        /* Log2 of the target tile */
+        private final int targetExponent;
+
+        /* Board used to work out the moves */
+        private final Board board;
+
+        /* Chance of a spawned tile being a 2 */
+        private final double twoChance;
+
+        /* Reused buffers for the boards after each move and their scores,
+           one of each for every depth of the search */
+        private final List<int[]> successors = new ArrayList<>();
+        private final List<int[]> scores = new ArrayList<>();
+
+        /* Reused buffer for a board being spawned on, one for each depth */
+        private final List<int[]> spawns = new ArrayList<>();
+
+        /**
+         * Constructor for a generator filling in a table
+         *
+         * @param table the mapped file, header already written
+         * @param boardSize the number of rows and columns of each board
+         * @param targetExponent log2 of the target tile
+         */
+        private Generator(MappedByteBuffer table, int boardSize,
+                int targetExponent) {
+            this.table = table;
+            this.cells = boardSize * boardSize;
+            this.targetExponent = targetExponent;
+            // the board never spawns tiles, so its generator is never used
+            this.board = new Board(new Random(0),
+                    new int[boardSize][boardSize]);
+            this.twoChance = this.board.TWO_PROBABILITY / HUNDRED;
+        }
+
+        /**
+         * Solves every new game, which has 2 tiles that are each a 2 or a 4
+         *
+         * @return the chance of winning from a new game
+         */
+        private double newGame() {
+            int[] tiles = new int[this.cells];
+            double total = 0;
+            double weight = 0;
+            for (int i = 0; i < this.cells; i++) {
+                for (int j = i + ONE; j < this.cells; j++) {
+                    for (int a = TWO; a <= FOUR; a += TWO) {
+                        for (int b = TWO; b <= FOUR; b += TWO) {
+                            tiles[i] = a;
+                            tiles[j] = b;
+                            double chance = this.spawnChance(a)
+                                    * this.spawnChance(b);
+                            total += chance * this.toMove(tiles, 0);
+                            weight += chance;
+                        }
+                    }
+                    tiles[i] = 0;
+                    tiles[j] = 0;
+                }
+            }
+            return total / weight;
+        }
+
+        /**
+         * Chance of winning from a board where the player is about to move
+         *
+         * @param tiles the tiles row by row
+         * @param depth the number of moves made so far in this search
+         * @return the chance of winning
+         */
+        private double toMove(int[] tiles, int depth) {
+            int index = index(tiles, this.cells, this.targetExponent);
+            if (index < 0) {
+                return ONE;
+            }
+            float stored = this.table.getFloat(offset(index));
+            if (!Float.isNaN(stored)) {
+                return stored;
+            }
+            int[] moved = buffer(this.successors, depth,
+                    Direction.COUNT * this.cells);
+            this.board.setTiles(tiles);
+            int canMove = this.board.moveAll(moved,
+                    buffer(this.scores, depth, Direction.COUNT));
+            // the best move, or 0 if the game is over
+            double best = 0;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                if ((canMove & (ONE << d)) != 0) {
+                    best = Math.max(best,
+                            this.afterMove(moved, d * this.cells, depth));
+                }
+            }
+            this.table.putFloat(offset(index), (float) best);
+            return best;
+        }
+
+        /**
+         * Chance of winning from a board right after a move, before a tile
+         * spawns
+         *
+         * @param moved buffer holding the board
+         * @param start the index of the first tile of the board in moved
+         * @param depth the number of moves made so far in this search
+         * @return the chance of winning
+         */
+        private double afterMove(int[] moved, int start, int depth) {
+            int[] tiles = buffer(this.spawns, depth, this.cells);
+            System.arraycopy(moved, start, tiles, 0, this.cells);
+            if (index(tiles, this.cells, this.targetExponent) < 0) {
+                return ONE;
+            }
+            double total = 0;
+            int empty = 0;
+            for (int i = 0; i < this.cells; i++) {
+                if (tiles[i] == 0) {
+                    empty++;
+                    for (int value = TWO; value <= FOUR; value += TWO) {
+                        tiles[i] = value;
+                        total += this.spawnChance(value)
+                                * this.toMove(tiles, depth + ONE);
+                    }
+                    tiles[i] = 0;
+                }
+            }
+            // a move always leaves at least one empty tile
+            return empty == 0 ? 0 : total / empty;
+        }
+
+        /**
+         * Chance of a spawned tile having a value
+         *
+         * @param value 2 or 4
+         * @return the chance
+         */
+        private double spawnChance(int value) {
+            return value == TWO ? this.twoChance : ONE - this.twoChance;
+        }
+
+        /**
+         * Gets the buffer for a depth, making it the first time
+         *
+         * @param buffers the buffers for every depth so far
+         * @param depth the depth
+         * @param length the length of a buffer
+         * @return the buffer
+         */
+        private static int[] buffer(List<int[]> buffers, int depth,
+                int length) {
+            while (buffers.size() <= depth) {
+                buffers.add(new int[length]);
+            }
+            return buffers.get(depth);
+        }
+    }
+
+    /**
+     * Makes a tablebase from the command line
+     *
+     * @param args board size, target tile and the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        int boardSize = Integer.parseInt(args[0]);
+        int targetTile = Integer.parseInt(args[1]);
+        Path path = Paths.get(args[2]);
+        long start = System.nanoTime();
+        double win = generate(path, boardSize, targetTile);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        System.out.printf("%dx%d to %d: win %.6f from a new game, %.1f s%n",
+                boardSize, boardSize, targetTile, win, seconds);
+    }
+}
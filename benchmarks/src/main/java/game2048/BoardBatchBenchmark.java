@@ -0,0 +1,104 @@
+package game2048;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares moving a whole corpus as a BoardBatch with moving it one Board
+ * at a time. Each call moves every board of the corpus once, after putting
+ * every board back, so the score is corpuses per microsecond.
+ *
+ * Run with: java -jar target/benchmarks.jar BoardBatchBenchmark -prof gc
+ *
+ * Bugs: None known
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBatchBenchmark {
+    /* Number of boards in the corpus */
+    private static final int CORPUS_SIZE = 1024;
+
+    /* Seed for the corpus so every run uses the same boards */
+    private static final long SEED = 2048;
+
+    /* The kind of boards to run on */
+    @Param({"RANDOM", "SPARSE", "DENSE", "NEAR_GAME_OVER"})
+    public BoardCorpus corpus;
+
+    /* The direction the tiles move in */
+    @Param({"LEFT", "RIGHT", "UP", "DOWN"})
+    public Direction direction;
+
+    /* The grids of the corpus */
+    private int[][][] grids;
+
+    /* The packed boards of the corpus */
+    private long[] packed;
+
+    /* One board for each grid of the corpus */
+    private Board[] boards;
+
+    /* The corpus as a batch */
+    private BoardBatch batch;
+
+    /* Bitmask of the boards that changed */
+    private long[] changed;
+
+    /**
+     * Makes the corpus
+     */
+    @Setup
+    public void setUp() {
+        this.grids = this.corpus.make(SEED, CORPUS_SIZE, BitBoard.GRID_SIZE);
+        this.packed = new long[CORPUS_SIZE];
+        this.boards = new Board[CORPUS_SIZE];
+        this.batch = new BoardBatch(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            this.packed[i] = BitBoard.pack(this.grids[i]);
+            this.boards[i] = new Board(this.grids[i]);
+            this.batch.add(this.packed[i]);
+        }
+        this.changed = new long[BoardBatch.maskWords(CORPUS_SIZE)];
+    }
+
+    @Benchmark
+    public int moveBatch() {
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            this.batch.set(i, this.packed[i]);
+        }
+        return this.batch.move(this.direction, this.changed);
+    }
+
+    @Benchmark
+    public int moveBoards() {
+        int count = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            this.boards[i].setGrid(this.grids[i]);
+            if (this.boards[i].move(this.direction)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int canMoveBatch() {
+        return this.batch.canMove(this.direction, this.changed);
+    }
+}
@@ -0,0 +1,101 @@
+package game2048;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hot paths of Board that take a direction on each kind of
+ * BoardCorpus board, in each direction. Every call works on the next board
+ * of the corpus so the branch predictor can't learn a single board. Since a
+ * move changes the board, the move benchmark puts the board back with
+ * setGrid first; subtract BoardGridBenchmark.setGrid to get the cost of the
+ * move alone.
+ *
+ * Run with: java -jar target/benchmarks.jar BoardBenchmark -prof gc
+ *
+ * Bugs: None known
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+    /* Number of boards in the corpus, a power of two */
+    private static final int CORPUS_SIZE = 1024;
+
+    /* Seed for the corpus so every run uses the same boards */
+    private static final long SEED = 2048;
+
+    /* The kind of boards to run on */
+    @Param({"RANDOM", "SPARSE", "DENSE", "NEAR_GAME_OVER"})
+    public BoardCorpus corpus;
+
+    /* The direction the tiles move in */
+    @Param({"LEFT", "RIGHT", "UP", "DOWN"})
+    public String direction;
+
+    /* The grids of the corpus */
+    private int[][][] grids;
+
+    /* One board for each grid of the corpus */
+    private Board[] boards;
+
+    /* The board being moved, put back to a corpus grid before each move */
+    private Board scratch;
+
+    /* Index of the next board to use */
+    private int next;
+
+    /**
+     * Makes the corpus
+     */
+    @Setup
+    public void setUp() {
+        this.grids = this.corpus.make(SEED, CORPUS_SIZE, BitBoard.GRID_SIZE);
+        this.boards = new Board[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            this.boards[i] = new Board(this.grids[i]);
+        }
+        this.scratch = new Board(this.grids[0]);
+    }
+
+    /**
+     * Steps to the next board of the corpus
+     *
+     * @return the index of the board to use
+     */
+    private int nextIndex() {
+        this.next = (this.next + 1) & (CORPUS_SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public boolean move() {
+        this.scratch.setGrid(this.grids[this.nextIndex()]);
+        return this.scratch.move(this.direction);
+    }
+
+    @Benchmark
+    public boolean canMove() {
+        return this.boards[this.nextIndex()].canMove(this.direction);
+    }
+
+    @Benchmark
+    public String boardToStringDirection() {
+        return this.boards[this.nextIndex()].boardToString(this.direction);
+    }
+}
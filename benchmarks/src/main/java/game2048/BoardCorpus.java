@@ -0,0 +1,134 @@
+package game2048;
+
+import java.util.Random;
+
+/**
+ * Makes the 4x4 boards the benchmarks run on. Each kind of board stresses a
+ * different part of the move code: sparse boards mostly slide, dense boards
+ * mostly merge and near game over boards can barely move at all.
+ *
+ * Bugs: None known
+ */
+
+public enum BoardCorpus {
+    /* Tiles from empty up to 2048, picked evenly */
+    RANDOM,
+    /* Two to four small tiles on an otherwise empty board */
+    SPARSE,
+    /* Every tile filled in with small tiles so many pairs can merge */
+    DENSE,
+    /* Every tile filled in with only a single pair that can merge */
+    NEAR_GAME_OVER;
+
+    /* Defined to avoid magic number */
+    private static final int TWO = 2;
+    private static final int FOUR = 4;
+
+    /* Largest exponent of a random tile */
+    private static final int MAX_EXPONENT = 11;
+
+    /* Largest exponent of a tile on a dense board */
+    private static final int DENSE_EXPONENT = 3;
+
+    /**
+     * Makes a set of boards of this kind
+     *
+     * @param seed the seed for the tiles
+     * @param count the number of boards
+     * @param size the number of rows and columns of each board
+     * @return the grids of the boards
+     */
+    public int[][][] make(long seed, int count, int size) {
+        Random random = new Random(seed);
+        int[][][] grids = new int[count][][];
+        for (int i = 0; i < count; i++) {
+            grids[i] = this.make(random, size);
+        }
+        return grids;
+    }
+
+    /**
+     * Makes a single board of this kind
+     *
+     * @param random picks the tiles
+     * @param size the number of rows and columns
+     * @return the grid of the board
+     */
+    private int[][] make(Random random, int size) {
+        int[][] grid = new int[size][size];
+        switch (this) {
+            case RANDOM:
+                for (int r = 0; r < size; r++) {
+                    for (int c = 0; c < size; c++) {
+                        grid[r][c] = tile(random.nextInt(MAX_EXPONENT + 1));
+                    }
+                }
+                break;
+            case SPARSE:
+                int tiles = TWO + random.nextInt(TWO + 1);
+                for (int i = 0; i < tiles; i++) {
+                    grid[random.nextInt(size)][random.nextInt(size)] =
+                            tile(1 + random.nextInt(TWO));
+                }
+                break;
+            case DENSE:
+                for (int r = 0; r < size; r++) {
+                    for (int c = 0; c < size; c++) {
+                        grid[r][c] = tile(1 + random.nextInt(DENSE_EXPONENT));
+                    }
+                }
+                break;
+            case NEAR_GAME_OVER:
+            default:
+                // a checkerboard of two tile sizes with no pairs, then a
+                // single tile is copied onto its neighbour
+                for (int r = 0; r < size; r++) {
+                    for (int c = 0; c < size; c++) {
+                        grid[r][c] = tile(checkerExponent(r, c, random));
+                    }
+                }
+                int row = random.nextInt(size);
+                int col = random.nextInt(size - 1);
+                grid[row][col + 1] = grid[row][col];
+                // the copy has the other tile size, so its other neighbours
+                // are re-rolled until none of them makes a second pair
+                int[][] neighbours = {{row - 1, col + 1}, {row + 1, col + 1},
+                        {row, col + TWO}};
+                for (int[] n : neighbours) {
+                    if (n[0] < 0 || n[0] >= size || n[1] >= size) {
+                        continue;
+                    }
+                    while (grid[n[0]][n[1]] == grid[row][col]) {
+                        grid[n[0]][n[1]] =
+                                tile(checkerExponent(n[0], n[1], random));
+                    }
+                }
+                break;
+        }
+        return grid;
+    }
+
+    /**
+     * Picks the exponent of a checkerboard tile, small on one colour and
+     * large on the other so that no two neighbours are equal
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @param random picks the exponent
+     * @return the exponent
+     */
+    private static int checkerExponent(int row, int col, Random random) {
+        return (row + col) % TWO == 0 ? 1 + random.nextInt(FOUR)
+                : FOUR + 1 + random.nextInt(FOUR);
+    }
+
+    /**
+     * Turns an exponent into a tile value
+     *
+     * @param exponent the log2 of the tile, or 0 for an empty tile
+     * @return the tile value
+     */
+    private static int tile(int exponent) {
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+}
@@ -0,0 +1,139 @@
+package game2048;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hot paths of Board that don't take a direction on each kind
+ * of BoardCorpus board. Every call works on the next board of the corpus so
+ * the branch predictor can't learn a single board. The rotate benchmark
+ * leaves each corpus board turned, which doesn't change what kind of board
+ * it is.
+ *
+ * Run with: java -jar target/benchmarks.jar BoardGridBenchmark -prof gc
+ *
+ * Bugs: None known
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardGridBenchmark {
+    /* Number of boards in the corpus, a power of two */
+    private static final int CORPUS_SIZE = 1024;
+
+    /* Seed for the corpus so every run uses the same boards */
+    private static final long SEED = 2048;
+
+    /* The kind of boards to run on */
+    @Param({"RANDOM", "SPARSE", "DENSE", "NEAR_GAME_OVER"})
+    public BoardCorpus corpus;
+
+    /* The grids of the corpus */
+    private int[][][] grids;
+
+    /* One board for each grid of the corpus */
+    private Board[] boards;
+
+    /* The board the grids are set on */
+    private Board scratch;
+
+    /* Index of the next board to use */
+    private int next;
+
+    /* Buffers reused by moveAll */
+    private final int[] successors = new int[Direction.COUNT
+            * BitBoard.GRID_SIZE * BitBoard.GRID_SIZE];
+    private final int[] scores = new int[Direction.COUNT];
+
+    /* Builder reused by appendTo */
+    private final StringBuilder output = new StringBuilder();
+
+    /**
+     * Makes the corpus
+     */
+    @Setup
+    public void setUp() {
+        this.grids = this.corpus.make(SEED, CORPUS_SIZE, BitBoard.GRID_SIZE);
+        this.boards = new Board[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            this.boards[i] = new Board(this.grids[i]);
+        }
+        this.scratch = new Board(this.grids[0]);
+    }
+
+    /**
+     * Steps to the next board of the corpus
+     *
+     * @return the index of the board to use
+     */
+    private int nextIndex() {
+        this.next = (this.next + 1) & (CORPUS_SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public int moveAll() {
+        return this.boards[this.nextIndex()].moveAll(this.successors,
+                this.scores);
+    }
+
+    @Benchmark
+    public boolean isGameOver() {
+        return this.boards[this.nextIndex()].isGameOver();
+    }
+
+    @Benchmark
+    public Board rotate(Turns turns) {
+        Board board = this.boards[this.nextIndex()];
+        board.rotate(turns.amount);
+        return board;
+    }
+
+    @Benchmark
+    public int[][] getGrid() {
+        return this.boards[this.nextIndex()].getGrid();
+    }
+
+    @Benchmark
+    public Board setGrid() {
+        this.scratch.setGrid(this.grids[this.nextIndex()]);
+        return this.scratch;
+    }
+
+    @Benchmark
+    public String boardToString() {
+        return this.boards[this.nextIndex()].boardToString();
+    }
+
+    @Benchmark
+    public StringBuilder appendTo() {
+        this.output.setLength(0);
+        return this.boards[this.nextIndex()].appendTo(this.output);
+    }
+
+    /**
+     * The number of quarter turns for rotate, kept in its own state so the
+     * other benchmarks aren't run once for each amount
+     */
+    @State(Scope.Thread)
+    public static class Turns {
+        /* The number of quarter turns rotate does */
+        @Param({"1", "2", "3"})
+        public int amount;
+    }
+}